@@ -0,0 +1,179 @@
+package main;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.securecryptoconfig.SCCKey;
+import org.securecryptoconfig.SCCKey.KeyUseCase;
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import COSE.CoseException;
+
+/**
+ * Benchmarks of the hot paths of client and server: signing, signature
+ * validation, encryption and decryption of orders as well as creating and
+ * reading messages.
+ *
+ * All benchmarks are run for each security level given in "securityLevel",
+ * once with a single thread and once with as many threads as there are cores.
+ * In the multi-threaded variant all threads share one server, every thread
+ * acts as its own client. "acceptMessages" hands a whole list of signed orders
+ * of the thread's client to the server at once, whose signatures are then
+ * validated in parallel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class HotPathBenchmark {
+
+	@Threads(1)
+	public static class SingleThreaded extends HotPathBenchmark {
+	}
+
+	@Threads(Threads.MAX)
+	public static class MultiThreaded extends HotPathBenchmark {
+	}
+
+	/**
+	 * Server that is shared by all threads
+	 */
+	@State(Scope.Benchmark)
+	public static class ServerState {
+
+		// security levels of the SCC configurations in "scc.path"
+		@Param({ "5" })
+		int securityLevel;
+
+		Server server;
+
+		@Setup
+		public void setup() {
+			SecureCryptoConfig.setCustomSCCPath(Paths.get(System.getProperty("scc.path", "../scc-configs")));
+			SecureCryptoConfig.setSecurityLevel(securityLevel);
+			Server.masterKey = Server.generateKey();
+			server = new Server();
+			// clients of the benchmark send far more messages than allowed by default
+			server.setRateLimit(0, 0);
+		}
+	}
+
+	/**
+	 * Client of the benchmark thread together with already prepared messages
+	 */
+	@State(Scope.Thread)
+	public static class ClientState {
+		int clientID;
+		byte[] publicKey;
+		byte[] privateKey;
+
+		String order;
+		byte[] orderBytes;
+		byte[] signature;
+		String signedMessage;
+		byte[] encryptedOrder;
+
+		@Setup
+		public void setup(ServerState state) throws Exception {
+			SCCKey key = SCCKey.createKey(KeyUseCase.Signing);
+			publicKey = key.getPublicKeyBytes();
+			privateKey = key.getPrivateKeyBytes();
+			clientID = state.server.registerClient(publicKey);
+
+			order = Message.createBuyStockMessage("DE0007164600", "100");
+			orderBytes = order.getBytes();
+			signature = Client.signMessage(orderBytes, publicKey, privateKey);
+			signedMessage = SignedMessage.createSignedMessage(clientID, 1, System.currentTimeMillis(), order, signature);
+
+			state.server.saveOrderEncrypted(orderBytes, clientID);
+			List<byte[]> stored = state.server.queues.getOrders(clientID);
+			encryptedOrder = stored.isEmpty() ? new byte[0] : stored.get(0);
+		}
+	}
+
+	/**
+	 * Signed orders of the client of the benchmark thread that are sent at once.
+	 * Every invocation needs new sequence numbers, otherwise the server would
+	 * reject the orders as replays.
+	 */
+	@State(Scope.Thread)
+	public static class BatchState {
+		// number of messages sent at once
+		@Param({ "64" })
+		int messages;
+
+		long sequence;
+		List<String> signedMessages;
+
+		@Setup(Level.Invocation)
+		public void setup(ClientState client) throws Exception {
+			signedMessages = new ArrayList<String>(messages);
+			for (int i = 0; i < messages; i++) {
+				long timestamp = System.currentTimeMillis();
+				byte[] signature = Client.signMessage(SignedMessage.signedBytes(++sequence, timestamp, client.orderBytes),
+						client.publicKey, client.privateKey);
+				signedMessages.add(
+						SignedMessage.createSignedMessage(client.clientID, sequence, timestamp, client.order, signature));
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] sign(ClientState client) throws CoseException {
+		return Client.signMessage(client.orderBytes, client.publicKey, client.privateKey);
+	}
+
+	@Benchmark
+	public boolean verify(ServerState state, ClientState client) throws CoseException {
+		return state.server.checkSignature(client.clientID, client.orderBytes, client.signature);
+	}
+
+	@Benchmark
+	public boolean encrypt(ServerState state, ClientState client) throws CoseException {
+		return state.server.saveOrderEncrypted(client.orderBytes, client.clientID);
+	}
+
+	@Benchmark
+	public byte[] decrypt(ServerState state, ClientState client) throws CoseException {
+		return state.server.decryptOrder(client.clientID, client.encryptedOrder);
+	}
+
+	@Benchmark
+	public List<String> acceptMessages(ServerState state, BatchState batch) {
+		return state.server.acceptMessages(batch.signedMessages);
+	}
+
+	@Benchmark
+	public String createBuyStockMessage() throws Exception {
+		return Message.createBuyStockMessage("DE0007164600", "100");
+	}
+
+	@Benchmark
+	public String createServerResponseMessage() throws Exception {
+		return Message.createServerResponseMessage(true);
+	}
+
+	@Benchmark
+	public SignedMessage signedMessageRoundTrip(ClientState client) throws Exception {
+		String json = SignedMessage.createSignedMessage(client.clientID, 1, System.currentTimeMillis(), client.order,
+				client.signature);
+		return MessageCodec.readSignedMessage(json);
+	}
+
+}
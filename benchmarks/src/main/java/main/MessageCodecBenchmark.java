@@ -0,0 +1,60 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the shared readers and writers of {@link MessageCodec} with
+ * creating a new ObjectMapper for every message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	Message message;
+	String signedMessageJson;
+
+	@Setup
+	public void setup() throws Exception {
+		String order = Message.createBuyStockMessage("DE0007164600", "100");
+		message = MessageCodec.readMessage(order);
+		signedMessageJson = SignedMessage.createSignedMessage(1, 1, System.currentTimeMillis(), order, new byte[132]);
+	}
+
+	@Benchmark
+	public String writeMessageNewMapper() throws Exception {
+		return new ObjectMapper().writeValueAsString(message);
+	}
+
+	@Benchmark
+	public String writeMessageCodec() throws Exception {
+		return MessageCodec.writeMessage(message);
+	}
+
+	@Benchmark
+	public SignedMessage readSignedMessageNewMapper() throws Exception {
+		return new ObjectMapper().readValue(signedMessageJson, SignedMessage.class);
+	}
+
+	@Benchmark
+	public SignedMessage readSignedMessageCodec() throws Exception {
+		return MessageCodec.readSignedMessage(signedMessageJson);
+	}
+
+}
@@ -0,0 +1,121 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Round trips through the {@link NetworkServer} on loopback.
+ *
+ * The messages are not signed, so the server answers each of them with a
+ * failure right after reading it. This measures framing, the selector thread
+ * and the hand over to the workers without any cryptography. "pipelined" sends
+ * many more frames than a connection may have pending before it reads the
+ * responses, so the server has to stop and resume reading from the connection.
+ * An invocation only ends after the responses of all its frames arrived.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkServerBenchmark {
+
+	// number of frames sent before the responses are read
+	@Param({ "1024" })
+	public int frames;
+
+	NetworkServer networkServer;
+	Thread selectorThread;
+	ServerConnection connection;
+	SocketChannel channel;
+	byte[] message;
+
+	@Setup
+	public void setup() throws IOException {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get(System.getProperty("scc.path", "../scc-configs")));
+		Server.masterKey = Server.generateKey();
+		networkServer = new NetworkServer(new Server(), 0, Runtime.getRuntime().availableProcessors());
+		selectorThread = new Thread(networkServer, "network-server");
+		selectorThread.start();
+		connection = new ServerConnection("localhost", networkServer.getPort());
+		channel = SocketChannel.open(new InetSocketAddress("localhost", networkServer.getPort()));
+		message = "{}".getBytes(StandardCharsets.UTF_8);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		connection.close();
+		channel.close();
+		networkServer.close();
+		selectorThread.join();
+	}
+
+	@Benchmark
+	public byte[] roundTrip() throws IOException {
+		return connection.send(message, WireFormat.JSON);
+	}
+
+	@Benchmark
+	public int pipelined() throws Exception {
+		// responses are read while the frames are written, otherwise both sides
+		// would wait for each other once the socket buffers are full
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < frames; i++) {
+					ByteBuffer frame = Frame.encode(Frame.JSON_MESSAGE, message);
+					while (frame.hasRemaining()) {
+						channel.write(frame);
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		writer.start();
+		ByteBuffer header = ByteBuffer.allocate(Frame.HEADER_SIZE);
+		int bytes = 0;
+		for (int i = 0; i < frames; i++) {
+			header.clear();
+			readFully(header);
+			ByteBuffer response = ByteBuffer.allocate(header.getInt(0));
+			readFully(response);
+			if (response.get(0) != Frame.JSON_MESSAGE) {
+				throw new IOException("Unexpected response of kind " + response.get(0));
+			}
+			bytes += response.capacity();
+		}
+		writer.join();
+		return bytes;
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Connection closed by server");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package main;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import main.Message.MessageType;
+import main.OrderIngestion.OverflowPolicy;
+
+/**
+ * Throughput and latency of matching orders in a single {@link OrderBook} and
+ * of handing them over to the {@link MatchingEngine}.
+ *
+ * The orders are random limit orders around a reference price, so about half
+ * of them are matched and the others rest in the book. Run with "-bm thrpt" or
+ * "-bm sample" to get only one of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookBenchmark {
+
+	// number of different orders that are sent again and again
+	private static final int ORDERS = 1 << 16;
+
+	// distance of the limit prices from the reference price
+	@Param({ "10", "1000" })
+	public int spread;
+
+	OrderRecord[] orders;
+	int next;
+	OrderBook book;
+	MatchingEngine engine;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		orders = new OrderRecord[ORDERS];
+		for (int i = 0; i < ORDERS; i++) {
+			MessageType type = random.nextBoolean() ? MessageType.BuyStock : MessageType.SellStock;
+			long price = 10000 - spread + random.nextInt(2 * spread + 1);
+			orders[i] = OrderRecord.of(type, "DE0007164600", 1 + random.nextInt(100), price, i + 1);
+		}
+		// waits for the worker, so the throughput of the matching is measured and not
+		// of rejected orders
+		engine = new MatchingEngine(1, MatchingEngine.DEFAULT_CAPACITY, OverflowPolicy.Block);
+	}
+
+	@Setup(Level.Iteration)
+	public void newBook() {
+		book = new OrderBook("DE0007164600");
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.close();
+	}
+
+	private OrderRecord nextOrder() {
+		OrderRecord order = orders[next];
+		next = (next + 1) & (ORDERS - 1);
+		return order;
+	}
+
+	@Benchmark
+	public long match(Blackhole blackhole) {
+		Consumer<Trade> trades = blackhole::consume;
+		return book.match(1, nextOrder(), trades);
+	}
+
+	@Benchmark
+	public boolean submitToEngine() {
+		return engine.submit(1, nextOrder());
+	}
+
+}
@@ -0,0 +1,72 @@
+package main;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.securecryptoconfig.SCCKey;
+import org.securecryptoconfig.SCCKey.KeyType;
+import org.securecryptoconfig.SCCKey.KeyUseCase;
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import COSE.CoseException;
+
+/**
+ * Compares the signature check of an incoming message with the already
+ * decoded client key of the server against the check with a key that is built
+ * from the public key bytes again for each message, as it was done before the
+ * keys were cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerificationKeyBenchmark {
+
+	Server server;
+	byte[] publicKey;
+	int clientID;
+	byte[] order;
+	byte[] signature;
+
+	@Setup
+	public void setup() throws Exception {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get(System.getProperty("scc.path", "../scc-configs")));
+		Server.masterKey = Server.generateKey();
+		server = new Server();
+		SCCKey key = SCCKey.createKey(KeyUseCase.Signing);
+		publicKey = key.getPublicKeyBytes();
+		clientID = server.registerClient(publicKey);
+		order = Message.createBuyStockMessage("DE0007164600", "100").getBytes();
+		signature = Client.signMessage(order, publicKey, key.getPrivateKeyBytes());
+	}
+
+	/**
+	 * Signature check as it is done by the server for each message
+	 */
+	@Benchmark
+	public boolean cachedKey() throws CoseException {
+		return server.checkSignature(clientID, order, signature);
+	}
+
+	/**
+	 * Signature check with a key that is created from the public key again for
+	 * each message
+	 */
+	@Benchmark
+	public boolean perMessageKey() throws CoseException {
+		return server.checkSignature(new SCCKey(KeyType.Asymmetric, publicKey, null, "EC"), order, signature);
+	}
+
+}
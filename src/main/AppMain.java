@@ -1,17 +1,16 @@
 package main;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import org.securecryptoconfig.SecureCryptoConfig;
 
-import COSE.CoseException;
-
 /**
  * Starting point for client/server simulation. 
  * Defined number of clients are created, registered by the server and then started to sent 
@@ -26,36 +25,146 @@ public class AppMain {
 
 	protected static HashSet<Client> clients = new HashSet<Client>();
 
+	// Threads the server and the clients are running on
+	enum ExecutionMode {
+		// one platform thread per client
+		Platform,
+		// one virtual thread per client, allows simulating a very large number of clients
+		Virtual
+	}
+
 	//client number that is simulated for server interaction
-	private static int maxClients = 1;
+	private static int maxClients = Integer.getInteger("clients", 1);
+
+	// selected with -Dthreads=Virtual or -Dthreads=Platform
+	private static ExecutionMode executionMode = ExecutionMode.valueOf(System.getProperty("threads", "Platform"));
+
+	// stored orders are kept in off-heap memory, selected with -DoffHeap=true
+	private static boolean offHeapOrders = Boolean.getBoolean("offHeap");
+
+	// orders are stored asynchronously if a policy is given with
+	// -Dingestion=Block, -Dingestion=Reject or -Dingestion=Shed
+	private static String ingestionPolicy = System.getProperty("ingestion");
+
+	// number of independent server shards, selected with -Dshards=<n>. 0 for a single server
+	private static int shardCount = Integer.getInteger("shards", 0);
+
+	// orders are matched in order books if a number of threads is given with -Dmatching=<n>
+	private static int matchingThreads = Integer.getInteger("matching", 0);
+
+	// keys of the clients are loaded from and added to this file, selected with -Dkeystore=<file>
+	private static String keystore = System.getProperty("keystore");
+
+	// load test instead of random client behavior, selected with -Dmode=load
+	private static boolean loadTest = "load".equals(System.getProperty("mode"));
+	// load test with every SCC configuration in its own JVM, selected with -Dmode=agility
+	private static boolean agilityTest = "agility".equals(System.getProperty("mode"));
+	// orders per second sent by all clients together during load test
+	private static double loadRate = Double.parseDouble(System.getProperty("rate", "100"));
+	// duration of load test in seconds
+	private static long loadDuration = Long.getLong("duration", 60);
+	// weights of BuyStock, SellStock and GetOrders orders during load test
+	private static String loadMix = System.getProperty("mix", "40,40,20");
+	// number of buy and sell orders sent in one SubmitOrders message during load test
+	private static int loadBatch = Integer.getInteger("batch", 1);
+
+	/**
+	 * Creates the executor the server and all clients are started in
+	 * @param mode
+	 * @return ExecutorService
+	 */
+	static ExecutorService createExecutor(ExecutionMode mode) {
+		if (mode == ExecutionMode.Virtual) {
+			return Executors.newVirtualThreadPerTaskExecutor();
+		}
+		return Executors.newCachedThreadPool();
+	}
 
 	public static void main(String[] args) {
+		if (agilityTest) {
+			try {
+				CryptoAgilityEvaluation.main(args);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+
 		Path p = Paths.get("scc-configs");
 		SecureCryptoConfig.setCustomSCCPath(p);
 
 		//Key for later Server encryption is generated
 		Server.masterKey = Server.generateKey();
-		logger.info("Starting server");
+		logger.info("Starting server with " + maxClients + " clients on " + executionMode + " threads");
 		
 		//Server gets started
-		Server server = new Server();
-		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-		executor.submit(server);
-		//Clients are registered by the server
-		try {
-			for (int i = 0; i < maxClients; i++) {
-				clients.add(Client.generateNewClient(server));
+		ExecutorService executor = createExecutor(executionMode);
+		OrderServer server;
+		if (shardCount > 0) {
+			ShardedServer shardedServer = new ShardedServer(shardCount);
+			shardedServer.registerMBeans("simulation");
+			if (matchingThreads > 0) {
+				shardedServer.enableMatching(matchingThreads);
+			}
+			server = shardedServer;
+		} else {
+			Server singleServer = offHeapOrders ? new Server(new OrderStore(new OrderArena())) : new Server();
+			singleServer.metrics.registerMBean("simulation");
+			if (ingestionPolicy != null) {
+				singleServer.enableIngestion(Runtime.getRuntime().availableProcessors(), 10000, 64,
+						OrderIngestion.OverflowPolicy.valueOf(ingestionPolicy));
 			}
+			if (matchingThreads > 0) {
+				singleServer.enableMatching(matchingThreads);
+			}
+			executor.submit(singleServer);
+			server = singleServer;
+		}
+		//Clients are registered by the server, their keys are generated in parallel
+		try {
+			long start = System.nanoTime();
+			clients.addAll(
+					Client.generateNewClients(server, maxClients, keystore == null ? null : Paths.get(keystore)));
+			logger.info("Registered " + clients.size() + " clients in " + (System.nanoTime() - start) / 1000000
+					+ " ms");
 
-		} catch (IllegalStateException | NoSuchAlgorithmException | CoseException e) {
+		} catch (IOException | InterruptedException e) {
 			e.printStackTrace();
 		}
 
+		if (loadTest) {
+			runLoadTest();
+			executor.shutdownNow();
+			return;
+		}
+
 		//Clients are started 
 		for (Client s : clients) {
 			executor.submit(s);
 		}
 
+		// virtual threads do not keep the JVM alive, so main waits until the simulation ends
+		executor.close();
+	}
+
+	/**
+	 * Lets all registered clients send orders with the configured rate and mix and
+	 * prints the measured latencies
+	 */
+	private static void runLoadTest() {
+		String[] weights = loadMix.split(",");
+		int[] mix = new int[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			mix[i] = Integer.parseInt(weights[i].trim());
+		}
+
+		LoadGenerator generator = new LoadGenerator(new ArrayList<Client>(clients), loadRate, loadDuration, mix);
+		generator.setBatchSize(loadBatch);
+		try {
+			System.out.println(generator.run(executionMode));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -1,9 +1,13 @@
 package main;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.securecryptoconfig.SCCException;
 import org.securecryptoconfig.SCCKey;
@@ -15,6 +19,8 @@ import org.securecryptoconfig.SecureCryptoConfig;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import COSE.CoseException;
+import main.Message.MessageType;
+import main.MessageCodec.WireFormat;
 
 /**
  * Class that simulates the behavior of a Client that interacts with a stock-server.
@@ -25,14 +31,30 @@ import COSE.CoseException;
  *
  */
 public class Client implements Runnable {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(Client.class);
 	
 	//maximum timeout of client used in "run" Method
 	private static int sendFrequency = 5000;
+
+	// stocks the clients trade, ISINs of a few DAX companies
+	private static final String[] STOCKS = { "DE0007164600", "DE0007236101", "DE0008404005", "DE0005557508",
+			"DE000BASF111" };
+	// limit prices are chosen around this price, in cent
+	private static final long REFERENCE_PRICE = 10000;
+	private static final long PRICE_SPREAD = 100;
 	
 	int clientID;
 	byte[] publicKey;
 	byte[] privateKey;
-	Server server;
+	OrderServer server;
+	// connection to the server if it is not running in the same process
+	ServerConnection connection;
+	// format in which messages are sent to the server
+	WireFormat wireFormat = WireFormat.JSON;
+	// sequence number of the last sent message, protects messages against replay
+	private final AtomicLong sequence = new AtomicLong();
 
 	/**
 	 * Constructor of client
@@ -41,13 +63,21 @@ public class Client implements Runnable {
 	 * @param privateKey
 	 * @param server
 	 */
-	private Client(int clientID, byte[] publicKey, byte[] privateKey, Server server) {
+	private Client(int clientID, byte[] publicKey, byte[] privateKey, OrderServer server) {
 		this.clientID = clientID;
 		this.publicKey = publicKey;
 		this.privateKey = privateKey;
 		this.server = server;
 	}
 
+	/**
+	 * Sets the format in which all following messages are sent to the server
+	 * @param wireFormat
+	 */
+	public void setWireFormat(WireFormat wireFormat) {
+		this.wireFormat = wireFormat;
+	}
+
 	/**
 	 * Getter for client ID
 	 * @return int : Id of client
@@ -58,14 +88,14 @@ public class Client implements Runnable {
 
 	
 	/**
-	 * Methods that signs the client order with the corresponding key
+	 * Methods that signs the already encoded client order with the corresponding key
 	 * @param order
 	 * @param publicKey
 	 * @param privateKey
 	 * @return byte[] : signature
 	 * @throws CoseException
 	 */
-	private static byte[] signMessage(String order, byte[] publicKey, byte[] privateKey) throws CoseException {
+	static byte[] signMessage(byte[] order, byte[] publicKey, byte[] privateKey) throws CoseException {
 		
 		SCCKey key = new SCCKey(KeyType.Asymmetric, publicKey, privateKey, "EC");
 		
@@ -86,7 +116,7 @@ public class Client implements Runnable {
 	 * @throws CoseException
 	 * @throws IllegalStateException
 	 */
-	public static Client generateNewClient(Server server)
+	public static Client generateNewClient(OrderServer server)
 			throws NoSuchAlgorithmException, CoseException, IllegalStateException {
 
 		SCCKey key = null;
@@ -109,35 +139,202 @@ public class Client implements Runnable {
 		}
 	}
 
+	/**
+	 * Creates and registers many clients at once. The keys are generated in
+	 * parallel or loaded from the keystore, see {@link KeyProvisioner}, and are
+	 * registered at the server in batches.
+	 * @param server
+	 * @param count number of clients
+	 * @param keystore keystore file the keys are loaded from and added to, null to generate all keys
+	 * @return List<Client> : registered clients, fewer than requested if keys could not be created or registered
+	 * @throws IOException if the keystore can not be read or written
+	 * @throws InterruptedException
+	 */
+	public static List<Client> generateNewClients(OrderServer server, int count, Path keystore)
+			throws IOException, InterruptedException {
+		KeyProvisioner provisioner = new KeyProvisioner();
+		List<KeyProvisioner.KeyMaterial> keys = provisioner.provide(count, keystore);
+
+		List<Client> clients = new ArrayList<Client>(keys.size());
+		for (int first = 0; first < keys.size(); first += provisioner.getBatchSize()) {
+			List<KeyProvisioner.KeyMaterial> batch = keys.subList(first,
+					Math.min(first + provisioner.getBatchSize(), keys.size()));
+			List<byte[]> publicKeys = new ArrayList<byte[]>(batch.size());
+			for (KeyProvisioner.KeyMaterial key : batch) {
+				publicKeys.add(key.publicKey);
+			}
+			int[] ids = server.registerClients(publicKeys);
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] == -1) {
+					logger.warn("server does not seem to accept the client registration!");
+					continue;
+				}
+				clients.add(new Client(ids[i], batch.get(i).publicKey, batch.get(i).privateKey, server));
+			}
+		}
+		return clients;
+	}
+
+	/**
+	 * Clients are registered with their public key by a server that is reached
+	 * over the network. All following messages of the client are sent over the
+	 * given connection.
+	 * @param connection
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 */
+	public static Client generateNewClient(ServerConnection connection)
+			throws NoSuchAlgorithmException, IOException, IllegalStateException {
+
+		try {
+			SCCKey key = SCCKey.createKey(KeyUseCase.Signing);
+
+			int clientID = connection.register(key.getPublicKeyBytes());
+			if (clientID == -1) {
+				throw new IllegalStateException("server does not seem to accept the client registration!");
+			}
+
+			Client c = new Client(clientID, key.getPublicKeyBytes(), key.getPrivateKeyBytes(), null);
+			c.connection = connection;
+			return c;
+
+		} catch (SCCException | COSE.CoseException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * Automatically generates a order of a random type (buy or sell stock).
 	 * Order contains an amount of stock to buy/sell from a specific stock
 	 * @return
 	 * @throws NumberFormatException
-	 * @throws JsonProcessingException
 	 */
-	private static String generateRandomMessage() throws NumberFormatException, JsonProcessingException {
+	private static Message generateRandomMessage() throws NumberFormatException {
 		int random = new Random().nextInt(3);
 		if (random == 0) {
-			return Message.createBuyStockMessage(generateRandomString(12), generateRandomNumber(3));
+			return generateRandomMessage(MessageType.BuyStock);
 		} else if (random == 1){
-			return Message.createSellStockMessage(generateRandomString(12), generateRandomNumber(10));
+			return generateRandomMessage(MessageType.SellStock);
 		}else
 		{
-			return Message.createGetOrdersMessage();
+			return generateRandomMessage(MessageType.GetOrders);
 		}
 
 	}
 
+	/**
+	 * Automatically generates a order of the given type with random stock, amount
+	 * and limit price
+	 * @param type BuyStock, SellStock or GetOrders
+	 * @return
+	 */
+	static Message generateRandomMessage(MessageType type) {
+		switch (type) {
+		case BuyStock:
+			return Message.buyStockMessage(randomStock(), generateRandomNumber(3), randomPrice());
+		case SellStock:
+			return Message.sellStockMessage(randomStock(), generateRandomNumber(10), randomPrice());
+		case GetOrders:
+			return Message.getOrdersMessage();
+		default:
+			throw new IllegalArgumentException("Clients do not send messages of type " + type);
+		}
+	}
+
 	/** 
 	 * Sending of signed message for buying/selling stock to server.
 	 * Server sends a response. Message is accepted if signature can be validated.
 	 * @throws CoseException
+	 * @throws IOException
+	 */
+	private void sendMessage(Message order) throws CoseException, IOException {
+		if (wireFormat == WireFormat.JSON && connection == null) {
+			sendMessage(MessageCodec.writeMessage(order));
+			return;
+		}
+
+		p("sending to server: " + order.getMessageType() + " as " + wireFormat);
+		byte[] result = submit(order);
+		p("result from server: " + result.length + " bytes " + wireFormat);
+	}
+
+	/**
+	 * Signs the order and sends it to the server in the format of the client
+	 * without any output.
+	 * @param order
+	 * @return byte[] : response of the server
+	 * @throws CoseException
+	 * @throws IOException
+	 */
+	byte[] submit(Message order) throws CoseException, IOException {
+		long sequenceNumber = sequence.incrementAndGet();
+		// in the compact format orders are signed as records carrying the sequence number
+		byte[] content = wireFormat == WireFormat.COMPACT && OrderRecord.isOrder(order.getMessageType())
+				? OrderRecord.fromMessage(order, sequenceNumber).encode()
+				: MessageCodec.encodeMessage(order, wireFormat);
+		long timestamp = System.currentTimeMillis();
+		byte[] signature = signMessage(SignedMessage.signedBytes(sequenceNumber, timestamp, content), publicKey,
+				privateKey);
+		byte[] signedMessage = SignedMessage.createSignedMessage(this.clientID, sequenceNumber, timestamp, content,
+				signature, wireFormat);
+
+		return connection != null ? connection.send(signedMessage, wireFormat)
+				: server.acceptMessage(signedMessage, wireFormat);
+	}
+
+	/**
+	 * Signs several orders together and sends them to the server in the format of
+	 * the client. Orders are sent in SubmitOrders messages of up to
+	 * OrderRecord.MAX_BATCH_SIZE orders, each with a single signature.
+	 * @param orders BuyStock and SellStock orders
+	 * @return List<byte[]> : response of the server for every SubmitOrders message
+	 * @throws CoseException
+	 * @throws IOException
+	 */
+	List<byte[]> submitBatch(List<Message> orders) throws CoseException, IOException {
+		List<byte[]> responses = new ArrayList<byte[]>();
+		for (int first = 0; first < orders.size(); first += OrderRecord.MAX_BATCH_SIZE) {
+			List<Message> batch = orders.subList(first, Math.min(first + OrderRecord.MAX_BATCH_SIZE, orders.size()));
+			// every order uses up a sequence number, the message carries the last one
+			long sequenceNumber = sequence.addAndGet(batch.size());
+			long timestamp = System.currentTimeMillis();
+			byte[] content;
+			if (wireFormat == WireFormat.COMPACT) {
+				List<OrderRecord> records = new ArrayList<OrderRecord>(batch.size());
+				for (int i = 0; i < batch.size(); i++) {
+					records.add(OrderRecord.fromMessage(batch.get(i), sequenceNumber - batch.size() + 1 + i));
+				}
+				content = OrderRecord.encodeBatch(records);
+			} else {
+				content = MessageCodec.encodeMessage(Message.submitOrdersMessage(batch), wireFormat);
+			}
+			byte[] signature = signMessage(SignedMessage.signedBytes(sequenceNumber, timestamp, content), publicKey,
+					privateKey);
+			byte[] signedMessage = SignedMessage.createSignedMessage(this.clientID, sequenceNumber, timestamp,
+					content, signature, wireFormat);
+
+			responses.add(connection != null ? connection.send(signedMessage, wireFormat)
+					: server.acceptMessage(signedMessage, wireFormat));
+		}
+		return responses;
+	}
+
+	/** 
+	 * Sending of signed message in JSON format to server.
+	 * @throws CoseException
 	 * @throws JsonProcessingException
 	 */
 	private void sendMessage(String order) throws CoseException, JsonProcessingException {
 		
-		String signedMessage = SignedMessage.createSignedMessage(this.clientID, order, signMessage(order, publicKey, privateKey));
+		long sequenceNumber = sequence.incrementAndGet();
+		long timestamp = System.currentTimeMillis();
+		byte[] signature = signMessage(SignedMessage.signedBytes(sequenceNumber, timestamp, order.getBytes()),
+				publicKey, privateKey);
+		String signedMessage = SignedMessage.createSignedMessage(this.clientID, sequenceNumber, timestamp, order,
+				signature);
 
 		p("sending to server: " + signedMessage);
 		String result = server.acceptMessage(signedMessage);
@@ -165,22 +362,21 @@ public class Client implements Runnable {
 	}
 
 	/**
-	 * Auxiliary method for generating a String of a given length.
+	 * Auxiliary method for choosing one of a few stocks, such that orders of
+	 * different clients can be matched.
 	 * Result simulates id of stock that should be bought.
-	 * @param length
 	 * @return String
 	 */
-	private static String generateRandomString(int length) {
-
-		String AlphaNumericString = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-		StringBuilder sb = new StringBuilder(length);
-
-		for (int i = 0; i < length; i++) {
-			int index = (int) (AlphaNumericString.length() * Math.random());
-			sb.append(AlphaNumericString.charAt(index));
-		}
+	private static String randomStock() {
+		return STOCKS[(int) (STOCKS.length * Math.random())];
+	}
 
-		return sb.toString();
+	/**
+	 * Auxiliary method for generating a limit price close to REFERENCE_PRICE.
+	 * @return String
+	 */
+	private static String randomPrice() {
+		return String.valueOf(REFERENCE_PRICE - PRICE_SPREAD + (long) (2 * PRICE_SPREAD * Math.random()));
 	}
 
 	/**
@@ -188,7 +384,9 @@ public class Client implements Runnable {
 	 * @param s
 	 */
 	private void p(String s) {
-		System.out.println(Instant.now().toString() + " client " + this.clientID + ": " + s);
+		if (logger.isDebugEnabled()) {
+			logger.debug("client " + this.clientID + ": " + s);
+		}
 	}
 
 	@Override
@@ -201,7 +399,7 @@ public class Client implements Runnable {
 				 e.printStackTrace();
 			} catch (NumberFormatException e) {
 				e.printStackTrace();
-			} catch (JsonProcessingException e) {
+			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
@@ -0,0 +1,216 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.securecryptoconfig.SCCException;
+
+/**
+ * Registry of all clients that are known by the server.
+ *
+ * Clients are identified by the content of their public key, so registering
+ * the same key again gives back the already assigned client ID. IDs are handed
+ * out in ascending order starting with 0, or, if several registries share the
+ * ID space, starting with the first ID of the registry in steps of the number
+ * of registries. Lookups of the key of a client by its
+ * ID can be done without locking and are used for every incoming message.
+ *
+ * A listener can be set that gets every new or replaced key, e.g. to keep the
+ * registrations in the {@link OrderJournal}. Registrations read back from there
+ * are added again with {@link #restore(int, byte[])}.
+ */
+public class ClientRegistry {
+
+	/**
+	 * Registered key of a client together with its already decoded form
+	 */
+	static class Entry {
+		final byte[] publicKey;
+		final VerificationKey verificationKey;
+
+		Entry(byte[] publicKey, VerificationKey verificationKey) {
+			this.publicKey = publicKey;
+			this.verificationKey = verificationKey;
+		}
+	}
+
+	// client IDs by content of their public key
+	private final ConcurrentHashMap<ByteBuffer, Integer> idsByKey = new ConcurrentHashMap<ByteBuffer, Integer>();
+	// registered keys by client ID
+	private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+	// number of IDs handed out so far
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final int firstId;
+	private final int idStep;
+	// gets the ID and key of every new or replaced key, null if not set
+	private volatile BiConsumer<Integer, byte[]> listener;
+
+	public ClientRegistry() {
+		this(0, 1);
+	}
+
+	/**
+	 * Creates a registry that shares the ID space with other registries
+	 *
+	 * @param firstId ID of the first client of this registry
+	 * @param idStep  difference between the IDs of this registry
+	 */
+	public ClientRegistry(int firstId, int idStep) {
+		this.firstId = firstId;
+		this.idStep = idStep;
+	}
+
+	/**
+	 * Registers the key of a client. If the same key was already registered the
+	 * existing client ID is returned.
+	 *
+	 * @param key publicKey of client
+	 * @return int : client ID
+	 * @throws SCCException if the key can not be decoded
+	 */
+	public int register(byte[] key) throws SCCException {
+		ByteBuffer content = ByteBuffer.wrap(key.clone());
+		Integer id = idsByKey.get(content);
+		if (id != null) {
+			return id;
+		}
+
+		Entry entry = new Entry(content.array(), new VerificationKey(content.array()));
+		int[] created = { -1 };
+		int assigned = idsByKey.computeIfAbsent(content, k -> {
+			int newId = firstId + nextId.getAndIncrement() * idStep;
+			entries.put(newId, entry);
+			created[0] = newId;
+			return newId;
+		});
+		// the listener may write to the journal, so it is not called while the map
+		// is locked
+		if (created[0] == assigned) {
+			notifyListener(assigned, entry.publicKey);
+		}
+		return assigned;
+	}
+
+	/**
+	 * Adds a client with an already assigned ID, e.g. one read back from the
+	 * {@link OrderJournal}. A client that is already known gets the given key.
+	 * Newly registered clients get higher IDs than the restored ones.
+	 *
+	 * @param clientID
+	 * @param key      publicKey of client
+	 * @throws SCCException if the key can not be decoded
+	 */
+	public void restore(int clientID, byte[] key) throws SCCException {
+		if (entries.containsKey(clientID)) {
+			replace(clientID, key);
+		} else {
+			ByteBuffer content = ByteBuffer.wrap(key.clone());
+			entries.put(clientID, new Entry(content.array(), new VerificationKey(content.array())));
+			idsByKey.put(content, clientID);
+		}
+		reserveIds(clientID);
+	}
+
+	/**
+	 * Sets the listener that gets the ID and key of every client that is
+	 * registered or whose key is replaced from now on
+	 *
+	 * @param listener
+	 */
+	public void setListener(BiConsumer<Integer, byte[]> listener) {
+		this.listener = listener;
+	}
+
+	private void notifyListener(int clientID, byte[] key) {
+		BiConsumer<Integer, byte[]> current = listener;
+		if (current != null) {
+			current.accept(clientID, key);
+		}
+	}
+
+	/**
+	 * Makes sure that newly registered clients get an ID that is higher than the
+	 * given one. Used if orders of clients from an earlier run were recovered, such
+	 * that new clients do not see these orders.
+	 *
+	 * @param clientID highest ID that is already in use
+	 */
+	public void reserveIds(int clientID) {
+		if (clientID >= firstId) {
+			nextId.accumulateAndGet((clientID - firstId) / idStep + 1, Math::max);
+		}
+	}
+
+	/**
+	 * Replaces the key of an already registered client.
+	 *
+	 * @param clientID
+	 * @param key      new publicKey of client
+	 * @return boolean : false if client is unknown or new key is already used by
+	 *         another client
+	 * @throws SCCException if the key can not be decoded
+	 */
+	public boolean replace(int clientID, byte[] key) throws SCCException {
+		Entry old = entries.get(clientID);
+		if (old == null) {
+			return false;
+		}
+		ByteBuffer content = ByteBuffer.wrap(key.clone());
+		Entry entry = new Entry(content.array(), new VerificationKey(content.array()));
+		Integer owner = idsByKey.putIfAbsent(content, clientID);
+		if (owner != null && owner != clientID) {
+			return false;
+		}
+
+		entries.put(clientID, entry);
+		if (!content.equals(ByteBuffer.wrap(old.publicKey))) {
+			idsByKey.remove(ByteBuffer.wrap(old.publicKey), clientID);
+			notifyListener(clientID, entry.publicKey);
+		}
+		return true;
+	}
+
+	/**
+	 * Getter for the already decoded key of a client
+	 *
+	 * @param clientID
+	 * @return VerificationKey : key of client, null if client is unknown
+	 */
+	public VerificationKey getVerificationKey(int clientID) {
+		Entry entry = entries.get(clientID);
+		return entry == null ? null : entry.verificationKey;
+	}
+
+	/**
+	 * Getter for the registered key of a client
+	 *
+	 * @param clientID
+	 * @return byte[] : publicKey of client, null if client is unknown
+	 */
+	public byte[] getPublicKey(int clientID) {
+		Entry entry = entries.get(clientID);
+		return entry == null ? null : entry.publicKey.clone();
+	}
+
+	/**
+	 * Checks if a client with the given ID is registered
+	 *
+	 * @param clientID
+	 * @return boolean
+	 */
+	public boolean contains(int clientID) {
+		return entries.containsKey(clientID);
+	}
+
+	/**
+	 * Number of registered clients
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,348 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import main.AppMain.ExecutionMode;
+import main.OrderStore.StoredOrder;
+import main.ServerMetrics.Stage;
+
+/**
+ * Compares the costs of different Secure Crypto Config (SCC) files.
+ *
+ * The SCC library keeps the used configuration in static fields, so one JVM
+ * can only use one configuration at a time. Therefore every configuration is
+ * evaluated in its own JVM. Each JVM runs a load test of the complete
+ * client/server flow with its configuration and reports throughput, latencies
+ * and the sizes of signatures and ciphertexts. The results are printed as one
+ * table.
+ *
+ * JVMs that run at the same time must not compete for the same cores, as this
+ * would distort the comparison. The available cores are split into sets of
+ * equal size, by default such that all configurations run at once, but at
+ * least one core per configuration. If there are more configurations than
+ * sets, they run one group after the other. Each JVM is told the size of its
+ * set with -XX:ActiveProcessorCount and, if taskset is available, pinned to
+ * its cores. The cores of each configuration are shown in the report. The size
+ * of the sets can be chosen with -DcoresPerConfig=<n>.
+ *
+ * Besides the signed configurations in "scc-configs", the unsigned local test
+ * configurations in "scc-configs-test" are evaluated. They are loaded with
+ * {@link SecureCryptoConfig#setSCCFile(String)}, which does not check the
+ * signatures of the file, and must not be used in production.
+ *
+ * The load test is configured with the same system properties as the one of
+ * {@link AppMain}: clients, rate, duration, mix, threads and batch.
+ */
+public class CryptoAgilityEvaluation {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(CryptoAgilityEvaluation.class);
+
+	// directories searched for configurations if none are given
+	static final String[] CONFIG_DIRECTORIES = { "scc-configs/configs", "scc-configs-test" };
+	// system properties that are passed on to the JVMs of the configurations
+	private static final String[] FORWARDED_PROPERTIES = { "clients", "rate", "duration", "mix", "threads",
+			"batch" };
+	// prefix of the output lines that contain results
+	private static final String RESULT_PREFIX = "agility.";
+	// results in the order they are shown in the report
+	private static final String[] COLUMNS = { "orders", "failures", "ordersPerSecond", "p50", "p99",
+			"signatureCheckP50", "encryptP50", "decryptP50", "signatureBytes", "ciphertextBytes" };
+
+	/**
+	 * Evaluates the given configurations, or all configurations found in the
+	 * CONFIG_DIRECTORIES if none are given. With "--config file" only the given
+	 * configuration is evaluated in this JVM.
+	 *
+	 * @param args paths of SCC files
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals("--config")) {
+			runConfig(Paths.get(args[1]));
+			return;
+		}
+		List<Path> configs = new ArrayList<Path>();
+		for (String arg : args) {
+			configs.add(Paths.get(arg));
+		}
+		System.out.println(evaluate(configs.isEmpty() ? findConfigs() : configs));
+	}
+
+	/**
+	 * All SCC files in the CONFIG_DIRECTORIES
+	 *
+	 * @return List<Path>
+	 * @throws IOException
+	 */
+	static List<Path> findConfigs() throws IOException {
+		List<Path> configs = new ArrayList<Path>();
+		for (String directory : CONFIG_DIRECTORIES) {
+			Path path = Paths.get(directory);
+			if (!Files.isDirectory(path)) {
+				continue;
+			}
+			try (Stream<Path> files = Files.walk(path)) {
+				configs.addAll(
+						files.filter(f -> f.toString().endsWith(".json")).sorted().collect(Collectors.toList()));
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Starts one JVM per configuration on its own cores, waits for all of them and
+	 * builds the report
+	 *
+	 * @param configs paths of SCC files
+	 * @return String : table with the results of all configurations
+	 * @throws IOException          if a JVM can not be started
+	 * @throws InterruptedException
+	 */
+	public static String evaluate(List<Path> configs) throws IOException, InterruptedException {
+		List<Integer> cpus = allowedCpus();
+		int coresPerConfig = Integer.getInteger("coresPerConfig",
+				Math.max(1, cpus.size() / Math.max(1, configs.size())));
+		coresPerConfig = Math.max(1, Math.min(coresPerConfig, cpus.size()));
+		// number of JVMs that run at the same time, each on its own cores
+		int parallel = cpus.size() / coresPerConfig;
+		String taskset = findTaskset();
+		if (taskset == null) {
+			logger.warn("taskset not found, JVMs are limited to " + coresPerConfig + " cores but not pinned");
+		}
+
+		List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+		List<String> cpuSets = new ArrayList<String>();
+		for (int first = 0; first < configs.size(); first += parallel) {
+			List<Process> processes = new ArrayList<Process>();
+			List<Thread> readers = new ArrayList<Thread>();
+			for (int i = first; i < Math.min(first + parallel, configs.size()); i++) {
+				Path config = configs.get(i);
+				int slot = i - first;
+				String cpuSet = cpus.subList(slot * coresPerConfig, (slot + 1) * coresPerConfig).stream()
+						.map(String::valueOf).collect(Collectors.joining(","));
+				logger.info("Evaluating " + config + " on cores " + cpuSet);
+				Process process = new ProcessBuilder(command(config, coresPerConfig, taskset, cpuSet))
+						.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+				Map<String, String> result = new LinkedHashMap<String, String>();
+				// output is read while the JVM runs, so it does not block on a full pipe
+				Thread reader = new Thread(() -> readResults(process, result), "agility-" + config.getFileName());
+				reader.start();
+				processes.add(process);
+				readers.add(reader);
+				results.add(result);
+				cpuSets.add(cpuSet);
+			}
+			for (int i = 0; i < processes.size(); i++) {
+				int exitCode = processes.get(i).waitFor();
+				readers.get(i).join();
+				if (exitCode != 0) {
+					logger.warn("Evaluation of " + configs.get(first + i) + " failed with exit code " + exitCode);
+				}
+			}
+		}
+		return report(configs, results, cpuSets, taskset != null);
+	}
+
+	/**
+	 * Cores this JVM may run on, as listed in /proc/self/status on Linux
+	 *
+	 * @return List<Integer> : core numbers, 0 to the number of processors - 1 if
+	 *         the list is not available
+	 */
+	static List<Integer> allowedCpus() {
+		List<Integer> cpus = new ArrayList<Integer>();
+		try (Stream<String> lines = Files.lines(Paths.get("/proc/self/status"))) {
+			String list = lines.filter(l -> l.startsWith("Cpus_allowed_list:")).findFirst().orElse("")
+					.replace("Cpus_allowed_list:", "").trim();
+			for (String range : list.split(",")) {
+				if (range.isEmpty()) {
+					continue;
+				}
+				String[] bounds = range.split("-");
+				int low = Integer.parseInt(bounds[0]);
+				int high = Integer.parseInt(bounds[bounds.length - 1]);
+				for (int cpu = low; cpu <= high; cpu++) {
+					cpus.add(cpu);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			cpus.clear();
+		}
+		if (cpus.isEmpty()) {
+			for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+				cpus.add(cpu);
+			}
+		}
+		return cpus;
+	}
+
+	/**
+	 * Looks for the taskset command in the PATH
+	 *
+	 * @return String : path of taskset, null if it is not found
+	 */
+	private static String findTaskset() {
+		String path = System.getenv("PATH");
+		if (path == null) {
+			return null;
+		}
+		for (String directory : path.split(File.pathSeparator)) {
+			File taskset = new File(directory, "taskset");
+			if (taskset.canExecute()) {
+				return taskset.getPath();
+			}
+		}
+		return null;
+	}
+
+	private static List<String> command(Path config, int cores, String taskset, String cpuSet) {
+		List<String> command = new ArrayList<String>();
+		if (taskset != null) {
+			command.add(taskset);
+			command.add("-c");
+			command.add(cpuSet);
+		}
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-XX:ActiveProcessorCount=" + cores);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (String property : FORWARDED_PROPERTIES) {
+			String value = System.getProperty(property);
+			if (value != null) {
+				command.add("-D" + property + "=" + value);
+			}
+		}
+		command.add(CryptoAgilityEvaluation.class.getName());
+		command.add("--config");
+		command.add(config.toAbsolutePath().toString());
+		return command;
+	}
+
+	private static void readResults(Process process, Map<String, String> result) {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf('=');
+				if (line.startsWith(RESULT_PREFIX) && separator > 0) {
+					synchronized (result) {
+						result.put(line.substring(RESULT_PREFIX.length(), separator), line.substring(separator + 1));
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String report(List<Path> configs, List<Map<String, String>> results, List<String> cpuSets,
+			boolean pinned) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "%-40s %12s", "config", "cores"));
+		for (String column : COLUMNS) {
+			sb.append(String.format(Locale.ROOT, " %17s", column));
+		}
+		sb.append(System.lineSeparator());
+		for (int i = 0; i < configs.size(); i++) {
+			Map<String, String> result = results.get(i);
+			sb.append(String.format(Locale.ROOT, "%-40s %12s", configs.get(i).getFileName(), cpuSets.get(i)));
+			synchronized (result) {
+				for (String column : COLUMNS) {
+					sb.append(String.format(Locale.ROOT, " %17s", result.getOrDefault(column, "-")));
+				}
+			}
+			sb.append(System.lineSeparator());
+		}
+		sb.append("latencies in us, sizes in bytes, plaintext of an order has " + OrderRecord.ENCODED_SIZE
+				+ " bytes");
+		if (!pinned) {
+			sb.append(System.lineSeparator());
+			sb.append("taskset was not found, JVMs that ran at the same time were not pinned to their cores");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Runs the load test with a single configuration and prints the results
+	 *
+	 * @param config path of SCC file
+	 * @throws Exception
+	 */
+	static void runConfig(Path config) throws Exception {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get("scc-configs"));
+		SecureCryptoConfig.setSCCFile(config.toAbsolutePath().toString());
+		Server.masterKey = Server.generateKey();
+
+		Server server = new Server();
+		int clientCount = Integer.getInteger("clients", 10);
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < clientCount; i++) {
+			Client client = Client.generateNewClient(server);
+			if (client == null) {
+				// results with fewer clients could not be compared with the others
+				throw new IllegalStateException("Client " + i + " could not be created with " + config);
+			}
+			clients.add(client);
+		}
+
+		String[] weights = System.getProperty("mix", "40,40,20").split(",");
+		int[] mix = new int[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			mix[i] = Integer.parseInt(weights[i].trim());
+		}
+		LoadGenerator generator = new LoadGenerator(clients,
+				Double.parseDouble(System.getProperty("rate", "100")), Long.getLong("duration", 10), mix);
+		generator.setBatchSize(Integer.getInteger("batch", 1));
+		generator.run(ExecutionMode.valueOf(System.getProperty("threads", "Platform")));
+
+		LatencyHistogram latencies = generator.getLatencies();
+		print("orders", generator.getOrders());
+		print("failures", generator.getFailures());
+		print("ordersPerSecond", String.format(Locale.ROOT, "%.1f", generator.getOrders() / generator.getSeconds()));
+		print("p50", micros(latencies.getValueAtPercentile(50)));
+		print("p99", micros(latencies.getValueAtPercentile(99)));
+		print("signatureCheckP50", micros(server.metrics.getLatency(Stage.SignatureCheck).getValueAtPercentile(50)));
+		print("encryptP50", micros(server.metrics.getLatency(Stage.Encrypt).getValueAtPercentile(50)));
+		print("decryptP50", micros(server.metrics.getLatency(Stage.Decrypt).getValueAtPercentile(50)));
+
+		Client client = clients.get(0);
+		byte[] signature = Client.signMessage(new byte[16 + OrderRecord.ENCODED_SIZE], client.publicKey,
+				client.privateKey);
+		print("signatureBytes", signature == null ? 0 : signature.length);
+		long ciphertextBytes = 0;
+		long ciphertexts = 0;
+		for (Client c : clients) {
+			for (StoredOrder order : server.queues.getOrders(c.getID(), 0, OrderStore.CAPACITY)) {
+				ciphertextBytes += order.encryptedOrder.length;
+				ciphertexts++;
+			}
+		}
+		print("ciphertextBytes", ciphertexts == 0 ? "-" : String.valueOf(ciphertextBytes / ciphertexts));
+	}
+
+	private static String micros(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+	}
+
+	private static void print(String name, Object value) {
+		System.out.println(RESULT_PREFIX + name + "=" + value);
+	}
+
+}
@@ -0,0 +1,97 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Framing of messages that are sent between client and server over the network.
+ *
+ * Each frame starts with its length as 4 byte big endian integer, followed by
+ * one byte that shows the kind of the frame and the payload. The length counts
+ * the kind byte and the payload. A response frame has the same kind as the
+ * request it belongs to.
+ */
+public final class Frame {
+
+	// Kinds of frames
+	public static final byte REGISTER = 0;
+	public static final byte JSON_MESSAGE = 1;
+	public static final byte CBOR_MESSAGE = 2;
+	public static final byte COMPACT_MESSAGE = 3;
+
+	// size of the length field
+	public static final int HEADER_SIZE = 4;
+	// maximum length of a frame
+	public static final int MAX_FRAME_SIZE = 1 << 20;
+
+	private Frame() {
+
+	}
+
+	/**
+	 * Kind of frame that is used for messages in the given format
+	 *
+	 * @param format
+	 * @return byte : kind of frame
+	 */
+	public static byte kindOf(WireFormat format) {
+		switch (format) {
+		case CBOR:
+			return CBOR_MESSAGE;
+		case COMPACT:
+			return COMPACT_MESSAGE;
+		default:
+			return JSON_MESSAGE;
+		}
+	}
+
+	/**
+	 * Format of the messages in a frame of the given kind
+	 *
+	 * @param kind
+	 * @return WireFormat : format, null if frame does not contain a message
+	 */
+	public static WireFormat formatOf(byte kind) {
+		switch (kind) {
+		case JSON_MESSAGE:
+			return WireFormat.JSON;
+		case CBOR_MESSAGE:
+			return WireFormat.CBOR;
+		case COMPACT_MESSAGE:
+			return WireFormat.COMPACT;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a complete frame that is ready to be written to a channel
+	 *
+	 * @param kind
+	 * @param payload
+	 * @return ByteBuffer : frame, positioned at its start
+	 */
+	public static ByteBuffer encode(byte kind, byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 1 + payload.length);
+		frame.putInt(1 + payload.length);
+		frame.put(kind);
+		frame.put(payload);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Checks the length field of a frame
+	 *
+	 * @param length
+	 * @throws IOException if the length is not valid
+	 */
+	public static void checkLength(int length) throws IOException {
+		if (length < 1 || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + length);
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import org.securecryptoconfig.SCCCiphertext;
+import org.securecryptoconfig.SCCException;
+import org.securecryptoconfig.SCCKey;
+import org.securecryptoconfig.SCCKey.KeyType;
+import org.securecryptoconfig.SCCKey.KeyUseCase;
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import COSE.CoseException;
+
+/**
+ * Keys used by the {@link Server} to encrypt the stored orders.
+ *
+ * Orders are not encrypted with the master key directly. Each client gets its
+ * own data key, which is only kept wrapped (encrypted) with the master key
+ * outside of the memory of the server. Data keys are created once and reused
+ * for all orders of a client, so no key has to be built per order.
+ *
+ * The master key can be replaced while the server is running. Only the data
+ * keys are wrapped again with the new master key, the stored orders stay
+ * encrypted with their data keys and do not have to be touched. Every master
+ * key has a version, such that wrapped keys of an earlier version can still be
+ * unwrapped until the rotation is finished.
+ *
+ * The master keys that are still needed can be kept in a key file, such that
+ * a restarted server can unwrap the data keys of the orders it stored before. A listener
+ * gets every data key when it is wrapped, e.g. to keep the wrapped keys in the
+ * {@link OrderJournal}, from where they are restored with
+ * {@link #restoreDataKey(int, WrappedKey)}.
+ */
+public class KeyManager {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(KeyManager.class);
+
+	// default name of the key file in the directory of the journal
+	public static final String MASTER_KEY_FILE = "master.key";
+
+	/**
+	 * Data key wrapped with a master key, e.g. to store it outside of the server
+	 */
+	public static class WrappedKey {
+		public final int masterVersion;
+		public final byte[] wrapped;
+
+		WrappedKey(int masterVersion, byte[] wrapped) {
+			this.masterVersion = masterVersion;
+			this.wrapped = wrapped;
+		}
+	}
+
+	/**
+	 * Master key together with its version, as kept in a key file
+	 */
+	public static class MasterKey {
+		public final int version;
+		public final byte[] key;
+
+		public MasterKey(int version, byte[] key) {
+			this.version = version;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Data key of a client in usable and in wrapped form
+	 */
+	private static class DataKey {
+		final SCCKey key;
+		volatile WrappedKey wrapped;
+
+		DataKey(SCCKey key, WrappedKey wrapped) {
+			this.key = key;
+			this.wrapped = wrapped;
+		}
+	}
+
+	private final SecureCryptoConfig scc = new SecureCryptoConfig();
+
+	// master keys by version
+	private final ConcurrentHashMap<Integer, SCCKey> masterKeys = new ConcurrentHashMap<Integer, SCCKey>();
+	private volatile int currentVersion;
+	// data keys by client ID
+	private final ConcurrentHashMap<Integer, DataKey> dataKeys = new ConcurrentHashMap<Integer, DataKey>();
+	// gets every newly wrapped data key, null if not set
+	private volatile BiConsumer<Integer, WrappedKey> listener;
+	// held for reading while a new data key is wrapped and for writing while the
+	// master keys are replaced
+	private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Constructor of key manager
+	 *
+	 * @param masterKey bytes of the first master key
+	 */
+	public KeyManager(byte[] masterKey) {
+		masterKeys.put(0, new SCCKey(KeyType.Symmetric, masterKey, "AES"));
+	}
+
+	/**
+	 * Gives back the data key of a client. A new data key is created on first use.
+	 *
+	 * @param clientId
+	 * @return SCCKey : data key, null if no key could be created
+	 */
+	public SCCKey getDataKey(int clientId) {
+		DataKey dataKey = dataKeys.get(clientId);
+		if (dataKey != null) {
+			return dataKey.key;
+		}
+		try {
+			SCCKey key = SCCKey.createKey(KeyUseCase.SymmetricEncryption);
+			DataKey created;
+			// keys of different clients are wrapped in parallel, only a rotation waits
+			// for them, so no key is added wrapped with a master key it drops
+			rotationLock.readLock().lock();
+			try {
+				created = new DataKey(key, wrap(key));
+				dataKey = dataKeys.putIfAbsent(clientId, created);
+			} finally {
+				rotationLock.readLock().unlock();
+			}
+			if (dataKey != null) {
+				// another thread created the key of the client at the same time
+				return dataKey.key;
+			}
+			notifyListener(clientId, created.wrapped);
+			return key;
+		} catch (SCCException | NoSuchAlgorithmException | CoseException | InvalidKeyException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Wraps a data key with the current master key. Has to be called while holding
+	 * the rotation lock.
+	 */
+	private WrappedKey wrap(SCCKey key) throws CoseException, InvalidKeyException {
+		int version = currentVersion;
+		SCCKey masterKey = masterKeys.get(version);
+		SCCCiphertext wrapped = scc.encryptSymmetric(masterKey, key.toBytes());
+		return new WrappedKey(version, wrapped.toBytes());
+	}
+
+	/**
+	 * Sets the listener that gets the client ID and the wrapped key of every data
+	 * key that is created or wrapped again from now on
+	 *
+	 * @param listener
+	 */
+	public void setListener(BiConsumer<Integer, WrappedKey> listener) {
+		this.listener = listener;
+	}
+
+	private void notifyListener(int clientId, WrappedKey wrapped) {
+		BiConsumer<Integer, WrappedKey> current = listener;
+		if (current != null) {
+			current.accept(clientId, wrapped);
+		}
+	}
+
+	/**
+	 * Restores the data key of a client from its wrapped form, e.g. after a
+	 * restart of the server
+	 *
+	 * @param clientId
+	 * @param wrappedKey
+	 * @return boolean : false if the key could not be unwrapped
+	 */
+	public boolean restoreDataKey(int clientId, WrappedKey wrappedKey) {
+		SCCKey masterKey = masterKeys.get(wrappedKey.masterVersion);
+		if (masterKey == null) {
+			return false;
+		}
+		try {
+			byte[] key = scc.decryptSymmetric(masterKey, new SCCCiphertext(wrappedKey.wrapped)).toBytes();
+			dataKeys.put(clientId, new DataKey(new SCCKey(KeyType.Symmetric, key, "AES"), wrappedKey));
+			return true;
+		} catch (CoseException | InvalidKeyException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the master key. All data keys are wrapped again with the new master
+	 * key, while orders can still be encrypted and decrypted. Master keys that no
+	 * data key is wrapped with anymore are dropped afterwards.
+	 *
+	 * If a data key can not be wrapped again, it stays wrapped with its earlier
+	 * master key, which is kept together with the new one. Calling this method
+	 * again later wraps the remaining data keys as well.
+	 *
+	 * @param masterKey bytes of the new master key
+	 * @return int : version of the new master key
+	 * @throws IllegalStateException if not all data keys could be wrapped again,
+	 *                               the new master key is used nevertheless
+	 */
+	public int rotateMasterKey(byte[] masterKey) {
+		rotationLock.writeLock().lock();
+		try {
+			return rotate(masterKey);
+		} finally {
+			rotationLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the master key. Has to be called while holding the rotation lock for
+	 * writing.
+	 */
+	private int rotate(byte[] masterKey) {
+		int version = currentVersion + 1;
+		masterKeys.put(version, new SCCKey(KeyType.Symmetric, masterKey, "AES"));
+		// data keys created from now on are wrapped with the new master key
+		currentVersion = version;
+
+		int rewrapped = 0;
+		int failed = 0;
+		Set<Integer> referenced = new HashSet<Integer>();
+		referenced.add(version);
+		for (Map.Entry<Integer, DataKey> entry : dataKeys.entrySet()) {
+			DataKey dataKey = entry.getValue();
+			if (dataKey.wrapped.masterVersion != version) {
+				try {
+					dataKey.wrapped = wrap(dataKey.key);
+					notifyListener(entry.getKey(), dataKey.wrapped);
+					rewrapped++;
+				} catch (CoseException | InvalidKeyException e) {
+					e.printStackTrace();
+					failed++;
+				}
+			}
+			referenced.add(dataKey.wrapped.masterVersion);
+		}
+		// also drops master keys kept by an earlier rotation that did not finish
+		masterKeys.keySet().retainAll(referenced);
+		if (failed > 0) {
+			throw new IllegalStateException(failed + " data keys could not be wrapped with master key version "
+					+ version + ", master key versions " + referenced + " are kept");
+		}
+		logger.info("Rotated master key to version " + version + ", " + rewrapped + " data keys wrapped again");
+		return version;
+	}
+
+	/**
+	 * Uses the master keys read from a key file instead of the one given in the
+	 * constructor. The key with the highest version becomes the current one. Only
+	 * possible before the first data key is created.
+	 *
+	 * @param stored master keys, at least one
+	 * @throws IllegalStateException if data keys were already created
+	 */
+	public void restoreMasterKeys(List<MasterKey> stored) {
+		rotationLock.writeLock().lock();
+		try {
+			if (!dataKeys.isEmpty()) {
+				throw new IllegalStateException("Master key can not be replaced after data keys were created");
+			}
+			masterKeys.clear();
+			int version = Integer.MIN_VALUE;
+			for (MasterKey masterKey : stored) {
+				masterKeys.put(masterKey.version, new SCCKey(KeyType.Symmetric, masterKey.key, "AES"));
+				version = Math.max(version, masterKey.version);
+			}
+			currentVersion = version;
+		} finally {
+			rotationLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gives back all master keys that are still needed, i.e. the current one and
+	 * the ones that data keys are still wrapped with
+	 *
+	 * @return List<MasterKey> : master keys ordered by version, the current one
+	 *         last
+	 */
+	public List<MasterKey> getMasterKeys() {
+		rotationLock.readLock().lock();
+		try {
+			List<MasterKey> kept = new ArrayList<MasterKey>(masterKeys.size());
+			for (Map.Entry<Integer, SCCKey> entry : new TreeMap<Integer, SCCKey>(masterKeys).entrySet()) {
+				kept.add(new MasterKey(entry.getKey(), entry.getValue().toBytes()));
+			}
+			return kept;
+		} finally {
+			rotationLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the master keys from a key file
+	 *
+	 * @param file
+	 * @return List<MasterKey> : master keys ordered by version
+	 * @throws IOException if the file can not be read
+	 */
+	public static List<MasterKey> readMasterKeys(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			int count = in.readInt();
+			if (count <= 0) {
+				throw new IOException("Key file " + file + " contains no master key");
+			}
+			List<MasterKey> stored = new ArrayList<MasterKey>(count);
+			for (int i = 0; i < count; i++) {
+				int version = in.readInt();
+				byte[] key = new byte[in.readUnsignedShort()];
+				in.readFully(key);
+				stored.add(new MasterKey(version, key));
+			}
+			return stored;
+		}
+	}
+
+	/**
+	 * Writes master keys to a key file that only the owner can read. The file is
+	 * replaced at once, so a failed write does not destroy existing keys.
+	 *
+	 * @param file
+	 * @param masterKeys all master keys that are still needed
+	 * @throws IOException
+	 */
+	public static void writeMasterKeys(Path file, List<MasterKey> masterKeys) throws IOException {
+		Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try {
+				Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+			} catch (UnsupportedOperationException e) {
+				// file system without POSIX permissions
+			}
+			try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+				out.writeInt(masterKeys.size());
+				for (MasterKey masterKey : masterKeys) {
+					out.writeInt(masterKey.version);
+					out.writeShort(masterKey.key.length);
+					out.write(masterKey.key);
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Version of the master key that new data keys are wrapped with
+	 *
+	 * @return int
+	 */
+	public int getMasterVersion() {
+		return currentVersion;
+	}
+
+}
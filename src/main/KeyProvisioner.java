@@ -0,0 +1,217 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.securecryptoconfig.SCCException;
+import org.securecryptoconfig.SCCKey;
+import org.securecryptoconfig.SCCKey.KeyUseCase;
+
+import COSE.CoseException;
+
+/**
+ * Provides the signing keys of many clients at once, e.g. for starting a
+ * simulation with a large number of clients.
+ *
+ * Generating an EC key pair takes much longer than registering it at the
+ * server, so the keys are generated in batches by a pool of threads. Keys can
+ * be kept in a local keystore file and are then loaded instead of generated on
+ * the next start. The file contains the private keys unencrypted and is only
+ * meant for simulations and tests.
+ */
+public class KeyProvisioner {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(KeyProvisioner.class);
+
+	// default number of keys that are generated and registered together
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	// first bytes of a keystore file
+	private static final int MAGIC = 0x4B455953;
+	private static final int VERSION = 1;
+
+	/**
+	 * Public and private key of a client
+	 */
+	public static final class KeyMaterial {
+		final byte[] publicKey;
+		final byte[] privateKey;
+
+		KeyMaterial(byte[] publicKey, byte[] privateKey) {
+			this.publicKey = publicKey;
+			this.privateKey = privateKey;
+		}
+	}
+
+	private final int threads;
+	private final int batchSize;
+
+	/**
+	 * Creates a provisioner that uses one thread per processor
+	 */
+	public KeyProvisioner() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor of provisioner
+	 *
+	 * @param threads   number of threads generating keys
+	 * @param batchSize number of keys generated by a thread at once
+	 */
+	public KeyProvisioner(int threads, int batchSize) {
+		this.threads = threads;
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Gives back the keys of the given number of clients. Keys found in the
+	 * keystore are used first, the missing ones are generated and added to the
+	 * keystore.
+	 *
+	 * @param count    number of keys
+	 * @param keystore keystore file, null to generate all keys
+	 * @return List<KeyMaterial> : keys, fewer than requested if keys could not be
+	 *         generated
+	 * @throws IOException          if the keystore can not be read or written
+	 * @throws InterruptedException
+	 */
+	public List<KeyMaterial> provide(int count, Path keystore) throws IOException, InterruptedException {
+		List<KeyMaterial> keys = new ArrayList<KeyMaterial>();
+		if (keystore != null && Files.exists(keystore)) {
+			List<KeyMaterial> stored = load(keystore);
+			keys.addAll(stored.subList(0, Math.min(count, stored.size())));
+			logger.info("Loaded " + keys.size() + " keys from " + keystore);
+		}
+		if (keys.size() < count) {
+			int loaded = keys.size();
+			long start = System.nanoTime();
+			keys.addAll(generate(count - loaded));
+			logger.info("Generated " + (keys.size() - loaded) + " keys on " + threads + " threads in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			if (keystore != null) {
+				store(keystore, keys);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Generates new signing keys in parallel
+	 *
+	 * @param count number of keys
+	 * @return List<KeyMaterial> : keys, fewer than requested if keys could not be
+	 *         generated
+	 * @throws InterruptedException
+	 */
+	public List<KeyMaterial> generate(int count) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<List<KeyMaterial>>> batches = new ArrayList<Future<List<KeyMaterial>>>();
+		for (int first = 0; first < count; first += batchSize) {
+			int size = Math.min(batchSize, count - first);
+			batches.add(pool.submit(() -> generateBatch(size)));
+		}
+		List<KeyMaterial> keys = new ArrayList<KeyMaterial>(count);
+		try {
+			for (Future<List<KeyMaterial>> batch : batches) {
+				keys.addAll(batch.get());
+			}
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdownNow();
+		}
+		return keys;
+	}
+
+	private static List<KeyMaterial> generateBatch(int size) {
+		List<KeyMaterial> keys = new ArrayList<KeyMaterial>(size);
+		for (int i = 0; i < size; i++) {
+			try {
+				SCCKey key = SCCKey.createKey(KeyUseCase.Signing);
+				keys.add(new KeyMaterial(key.getPublicKeyBytes(), key.getPrivateKeyBytes()));
+			} catch (SCCException | CoseException | NoSuchAlgorithmException e) {
+				e.printStackTrace();
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Reads all keys of a keystore file
+	 *
+	 * @param keystore
+	 * @return List<KeyMaterial>
+	 * @throws IOException if the file can not be read or is no keystore
+	 */
+	public static List<KeyMaterial> load(Path keystore) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(keystore)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(keystore + " is no keystore");
+			}
+			int count = in.readInt();
+			List<KeyMaterial> keys = new ArrayList<KeyMaterial>(count);
+			for (int i = 0; i < count; i++) {
+				byte[] publicKey = new byte[in.readUnsignedShort()];
+				in.readFully(publicKey);
+				byte[] privateKey = new byte[in.readUnsignedShort()];
+				in.readFully(privateKey);
+				keys.add(new KeyMaterial(publicKey, privateKey));
+			}
+			return keys;
+		}
+	}
+
+	/**
+	 * Writes keys to a keystore file. The file is replaced at once, so a failed
+	 * write does not destroy an existing keystore.
+	 *
+	 * @param keystore
+	 * @param keys
+	 * @throws IOException
+	 */
+	public static void store(Path keystore, List<KeyMaterial> keys) throws IOException {
+		Path directory = keystore.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, keystore.getFileName().toString(), ".tmp");
+		try {
+			try {
+				Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+			} catch (UnsupportedOperationException e) {
+				// file system without POSIX permissions
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(keys.size());
+				for (KeyMaterial key : keys) {
+					out.writeShort(key.publicKey.length);
+					out.write(key.publicKey);
+					out.writeShort(key.privateKey.length);
+					out.write(key.privateKey);
+				}
+			}
+			Files.move(temp, keystore, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
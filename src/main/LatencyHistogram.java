@@ -0,0 +1,135 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds.
+ *
+ * Values are counted in buckets whose width grows with the value, every power
+ * of two is split into 32 buckets. So each recorded value is kept with a
+ * precision of about 3 percent, independent of its size. Recording does not
+ * lock and can be done from many threads at the same time.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	private static int bucketOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) Math.max(value, 0);
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+	}
+
+	// largest value that is counted in the given bucket
+	private static long highestValueOf(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_COUNT - 1;
+		long top = bucket % SUB_COUNT + SUB_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketOf(nanos));
+		total.increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Adds all values of another histogram to this one
+	 *
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		total.add(other.total.sum());
+		sum.add(other.sum.sum());
+	}
+
+	/**
+	 * Number of recorded values
+	 *
+	 * @return long
+	 */
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * Mean of all recorded values
+	 *
+	 * @return double : nanoseconds, 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = total.sum();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * Value below which the given percentage of all recorded values lies
+	 *
+	 * @param percentile between 0 and 100
+	 * @return long : nanoseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = total.sum();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Largest recorded value
+	 *
+	 * @return long : nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (counts.get(i) != 0) {
+				return highestValueOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Clears all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+	}
+
+}
@@ -0,0 +1,264 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import main.AppMain.ExecutionMode;
+import main.Message.MessageType;
+
+/**
+ * Load test of the server with the simulated clients.
+ *
+ * The clients send orders with a fixed aggregate rate, independent of how fast
+ * the server answers (open loop). Every client sends its orders according to a
+ * fixed schedule. The latency of an order is measured from the time it was
+ * scheduled for, so time the order had to wait because the client was still
+ * busy with earlier orders is part of the latency. This way a slow server can
+ * not hide its latency by reducing the load (coordinated omission).
+ *
+ * With a batch size larger than one, buy and sell orders are sent several at a
+ * time in a SubmitOrders message with a single signature. The rate then counts
+ * messages, each batch is one message of the schedule.
+ */
+public class LoadGenerator {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(LoadGenerator.class);
+
+	// message types clients can send
+	private static final MessageType[] TYPES = { MessageType.BuyStock, MessageType.SellStock,
+			MessageType.GetOrders };
+	// message types latencies are reported for
+	private static final MessageType[] REPORTED = { MessageType.BuyStock, MessageType.SellStock,
+			MessageType.GetOrders, MessageType.SubmitOrders };
+
+	private final List<Client> clients;
+	private final double ratePerSecond;
+	private final long durationNanos;
+	// weights of BuyStock, SellStock and GetOrders
+	private final int[] mix;
+	// number of buy and sell orders sent in one message
+	private int batchSize = 1;
+
+	private final Map<MessageType, LatencyHistogram> latencies = new EnumMap<MessageType, LatencyHistogram>(
+			MessageType.class);
+	private final LatencyHistogram failures = new LatencyHistogram();
+	// duration of the last run in seconds
+	private double seconds;
+
+	/**
+	 * Constructor of load generator
+	 *
+	 * @param clients         registered clients that send orders
+	 * @param ratePerSecond   orders per second sent by all clients together
+	 * @param durationSeconds duration of the test
+	 * @param mix             weights of BuyStock, SellStock and GetOrders orders
+	 * @throws IllegalArgumentException if the rate is not positive, a weight is
+	 *                                  negative or all weights are 0
+	 */
+	public LoadGenerator(List<Client> clients, double ratePerSecond, long durationSeconds, int[] mix) {
+		if (mix.length != TYPES.length) {
+			throw new IllegalArgumentException("mix needs weights for BuyStock, SellStock and GetOrders");
+		}
+		if (!(ratePerSecond > 0)) {
+			throw new IllegalArgumentException("rate has to be positive, but is " + ratePerSecond);
+		}
+		long total = 0;
+		for (int weight : mix) {
+			if (weight < 0) {
+				throw new IllegalArgumentException("mix must not contain negative weights");
+			}
+			total += weight;
+		}
+		if (total == 0 || total > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Sum of the weights of mix has to be between 1 and " + Integer.MAX_VALUE);
+		}
+		this.clients = clients;
+		this.ratePerSecond = ratePerSecond;
+		this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+		this.mix = mix.clone();
+		for (MessageType type : REPORTED) {
+			latencies.put(type, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Lets buy and sell orders be sent together in SubmitOrders messages
+	 *
+	 * @param batchSize number of orders per message, 1 to send every order on its
+	 *                  own
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1 || batchSize > OrderRecord.MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size has to be between 1 and " + OrderRecord.MAX_BATCH_SIZE);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Runs the load test and waits until it is finished
+	 *
+	 * @param mode threads the clients are running on
+	 * @return String : report of the results
+	 * @throws InterruptedException
+	 */
+	public String run(ExecutionMode mode) throws InterruptedException {
+		long interval = (long) (clients.size() * 1e9 / ratePerSecond);
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long end = start + durationNanos;
+
+		ExecutorService executor = AppMain.createExecutor(mode);
+		List<Future<?>> runs = new ArrayList<Future<?>>();
+		for (int i = 0; i < clients.size(); i++) {
+			Client client = clients.get(i);
+			// clients are spread evenly over the interval, those that would start after
+			// the end send nothing
+			long first = start + (long) Math.min(i * 1e9 / ratePerSecond, durationNanos);
+			runs.add(executor.submit(() -> runClient(client, first, interval, end)));
+		}
+		for (Future<?> run : runs) {
+			try {
+				run.get();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		executor.shutdown();
+
+		seconds = (System.nanoTime() - start) / 1e9;
+		String report = report(seconds);
+		logger.info(report);
+		return report;
+	}
+
+	/**
+	 * Latencies of all orders of the last run, independent of their type
+	 *
+	 * @return LatencyHistogram
+	 */
+	public LatencyHistogram getLatencies() {
+		LatencyHistogram all = new LatencyHistogram();
+		for (MessageType type : REPORTED) {
+			all.add(latencies.get(type));
+		}
+		return all;
+	}
+
+	/**
+	 * Number of orders of the last run that were answered, every order of a batch
+	 * counted on its own
+	 *
+	 * @return long
+	 */
+	public long getOrders() {
+		long orders = 0;
+		for (MessageType type : TYPES) {
+			orders += latencies.get(type).getCount();
+		}
+		return orders + latencies.get(MessageType.SubmitOrders).getCount() * batchSize;
+	}
+
+	public long getFailures() {
+		return failures.getCount();
+	}
+
+	/**
+	 * Duration of the last run
+	 *
+	 * @return double : seconds
+	 */
+	public double getSeconds() {
+		return seconds;
+	}
+
+	private void runClient(Client client, long first, long interval, long end) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		// the last step ends the run, so a long interval does not overflow
+		for (long scheduled = first; scheduled < end; scheduled += Math.min(interval, end - scheduled)) {
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			MessageType type = pickType(random);
+			try {
+				if (batchSize > 1 && type != MessageType.GetOrders) {
+					client.submitBatch(randomOrders(random));
+					type = MessageType.SubmitOrders;
+				} else {
+					client.submit(Client.generateRandomMessage(type));
+				}
+				latencies.get(type).record(System.nanoTime() - scheduled);
+			} catch (Exception e) {
+				failures.record(System.nanoTime() - scheduled);
+			}
+		}
+	}
+
+	/**
+	 * Random buy and sell orders for one SubmitOrders message, weighted like the
+	 * single orders
+	 */
+	private List<Message> randomOrders(ThreadLocalRandom random) {
+		List<Message> orders = new ArrayList<Message>(batchSize);
+		int total = mix[0] + mix[1];
+		for (int i = 0; i < batchSize; i++) {
+			MessageType type = total == 0 || random.nextInt(total) < mix[0] ? MessageType.BuyStock
+					: MessageType.SellStock;
+			orders.add(Client.generateRandomMessage(type));
+		}
+		return orders;
+	}
+
+	private MessageType pickType(ThreadLocalRandom random) {
+		int total = 0;
+		for (int weight : mix) {
+			total += weight;
+		}
+		int r = random.nextInt(total);
+		for (int i = 0; i < TYPES.length; i++) {
+			r -= mix[i];
+			if (r < 0) {
+				return TYPES[i];
+			}
+		}
+		return TYPES[TYPES.length - 1];
+	}
+
+	private String report(double seconds) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "Load test: %d clients, target %.1f %s/s, %.1f s%n", clients.size(),
+				ratePerSecond, batchSize > 1 ? "messages" : "orders", seconds));
+		sb.append(String.format(Locale.ROOT, "%-12s %10s %10s %10s %10s %10s %10s %10s%n", "type", "count",
+				"orders/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+		for (MessageType type : REPORTED) {
+			if (type != MessageType.SubmitOrders || batchSize > 1) {
+				appendLine(sb, type.toString(), latencies.get(type), seconds);
+			}
+		}
+		if (batchSize > 1) {
+			sb.append(String.format(Locale.ROOT, "SubmitOrders messages carry %d orders each%n", batchSize));
+		}
+		appendLine(sb, "all", getLatencies(), seconds);
+		if (failures.getCount() > 0) {
+			appendLine(sb, "failed", failures, seconds);
+		}
+		return sb.toString();
+	}
+
+	private static void appendLine(StringBuilder sb, String name, LatencyHistogram histogram, double seconds) {
+		sb.append(String.format(Locale.ROOT, "%-12s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+				histogram.getCount(), histogram.getCount() / seconds, histogram.getValueAtPercentile(50) / 1e3,
+				histogram.getValueAtPercentile(90) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+				histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3));
+	}
+
+}
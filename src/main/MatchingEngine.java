@@ -0,0 +1,275 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import main.OrderIngestion.OverflowPolicy;
+
+/**
+ * Matches the orders accepted by the {@link Server} in an {@link OrderBook} per
+ * stock.
+ *
+ * Every stock is assigned to one of the worker threads by its ISIN, and only
+ * this thread reads and changes the book of the stock. So the books do not need
+ * any locks. Orders are handed over to the workers in bounded queues. What
+ * happens if a queue is full is chosen with the
+ * {@link OrderIngestion.OverflowPolicy}, by default the order is not matched and
+ * counted as rejected, so a busy stock does not hold up the threads that store
+ * orders. The trades of a client are kept until the client requests them with
+ * GetOrders.
+ */
+public class MatchingEngine implements AutoCloseable {
+
+	// default number of waiting orders per worker
+	public static final int DEFAULT_CAPACITY = 16 * 1024;
+	// number of trades of a client that are kept until they are requested
+	public static final int TRADE_HISTORY = OrderStore.CAPACITY;
+	// maximum number of orders a worker takes at once
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * Order that waits to be matched
+	 */
+	private static class PendingOrder {
+		final int clientId;
+		final OrderRecord order;
+
+		PendingOrder(int clientId, OrderRecord order) {
+			this.clientId = clientId;
+			this.order = order;
+		}
+	}
+
+	private final OverflowPolicy policy;
+	private final List<ArrayBlockingQueue<PendingOrder>> queues;
+	private final Thread[] workers;
+	private volatile boolean running = true;
+
+	// trades of each client that were not requested yet
+	private final ConcurrentHashMap<Integer, ArrayBlockingQueue<Trade>> trades = new ConcurrentHashMap<Integer, ArrayBlockingQueue<Trade>>();
+	private final LongAdder matchedOrders = new LongAdder();
+	private final LongAdder tradeCount = new LongAdder();
+	private final LongAdder tradedAmount = new LongAdder();
+	private final LongAdder droppedTrades = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder shed = new LongAdder();
+
+	/**
+	 * Creates the engine with the default queue capacity, orders are rejected if a
+	 * queue is full
+	 *
+	 * @param threads number of worker threads
+	 */
+	public MatchingEngine(int threads) {
+		this(threads, DEFAULT_CAPACITY, OverflowPolicy.Reject);
+	}
+
+	/**
+	 * Creates the queues and starts the workers
+	 *
+	 * @param threads  number of worker threads
+	 * @param capacity maximum number of waiting orders per worker
+	 * @param policy   behavior if a queue is full. With Block the threads that
+	 *                 store orders wait for the slowest stock of the queue
+	 */
+	public MatchingEngine(int threads, int capacity, OverflowPolicy policy) {
+		this.policy = policy;
+		this.queues = new ArrayList<ArrayBlockingQueue<PendingOrder>>(threads);
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			ArrayBlockingQueue<PendingOrder> queue = new ArrayBlockingQueue<PendingOrder>(capacity);
+			queues.add(queue);
+			workers[i] = new Thread(() -> drain(queue), "matching-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Hands an order over to the worker of its stock
+	 *
+	 * @param clientId client that sent the order
+	 * @param order
+	 * @return boolean : false if the engine is closed or the order was rejected
+	 */
+	public boolean submit(int clientId, OrderRecord order) {
+		if (!running) {
+			rejected.increment();
+			return false;
+		}
+		int h = order.getIsinHash() * 0x9E3779B9;
+		ArrayBlockingQueue<PendingOrder> queue = queues.get(Math.floorMod(h ^ (h >>> 16), queues.size()));
+		PendingOrder pending = new PendingOrder(clientId, order);
+		switch (policy) {
+		case Block:
+			try {
+				queue.put(pending);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				rejected.increment();
+				return false;
+			}
+		case Shed:
+			while (!queue.offer(pending)) {
+				if (queue.poll() != null) {
+					shed.increment();
+				}
+			}
+			return true;
+		default:
+			if (queue.offer(pending)) {
+				return true;
+			}
+			rejected.increment();
+			return false;
+		}
+	}
+
+	private void drain(ArrayBlockingQueue<PendingOrder> queue) {
+		// books of the stocks of this worker, only used by this thread
+		Map<String, OrderBook> books = new HashMap<String, OrderBook>();
+		List<PendingOrder> batch = new ArrayList<PendingOrder>(BATCH_SIZE);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, BATCH_SIZE - 1);
+			for (PendingOrder pending : batch) {
+				String isin = pending.order.getIsin();
+				OrderBook book = books.get(isin);
+				if (book == null) {
+					book = new OrderBook(isin);
+					books.put(isin, book);
+				}
+				try {
+					book.match(pending.clientId, pending.order, this::publish);
+					matchedOrders.increment();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	private void publish(Trade trade) {
+		tradeCount.increment();
+		tradedAmount.add(trade.getAmount());
+		keep(trade.getBuyerId(), trade);
+		if (trade.getSellerId() != trade.getBuyerId()) {
+			keep(trade.getSellerId(), trade);
+		}
+	}
+
+	private void keep(int clientId, Trade trade) {
+		ArrayBlockingQueue<Trade> queue = trades.get(clientId);
+		if (queue == null) {
+			queue = trades.computeIfAbsent(clientId, id -> new ArrayBlockingQueue<Trade>(TRADE_HISTORY));
+		}
+		// the oldest trades are dropped if the client does not request them
+		while (!queue.offer(trade)) {
+			if (queue.poll() != null) {
+				droppedTrades.increment();
+			}
+		}
+	}
+
+	/**
+	 * Takes the trades of a client that were not requested yet
+	 *
+	 * @param clientId
+	 * @return List<Trade> : trades in the order they were made
+	 */
+	public List<Trade> takeTrades(int clientId) {
+		List<Trade> taken = new ArrayList<Trade>();
+		ArrayBlockingQueue<Trade> queue = trades.get(clientId);
+		if (queue != null) {
+			queue.drainTo(taken);
+		}
+		return taken;
+	}
+
+	/**
+	 * Number of orders that wait to be matched
+	 *
+	 * @return int
+	 */
+	public int getPending() {
+		int pending = 0;
+		for (ArrayBlockingQueue<PendingOrder> queue : queues) {
+			pending += queue.size();
+		}
+		return pending;
+	}
+
+	public long getMatchedOrders() {
+		return matchedOrders.sum();
+	}
+
+	public long getTrades() {
+		return tradeCount.sum();
+	}
+
+	public long getTradedAmount() {
+		return tradedAmount.sum();
+	}
+
+	/**
+	 * Number of trades that were dropped because the client did not request them
+	 * in time
+	 *
+	 * @return long
+	 */
+	public long getDroppedTrades() {
+		return droppedTrades.sum();
+	}
+
+	/**
+	 * Number of orders that were not matched because their queue was full or the
+	 * engine was closed
+	 *
+	 * @return long
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Number of waiting orders that were dropped to make space for newer ones
+	 *
+	 * @return long
+	 */
+	public long getShed() {
+		return shed.sum();
+	}
+
+	/**
+	 * Stops accepting orders and waits until all waiting orders are matched
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+}
@@ -1,11 +1,12 @@
 package main;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Class which realizes the message creation. These messages are used for the interaction between
@@ -21,7 +22,7 @@ public class Message {
 
 	// Shows different kinds of messages that can be used
 	enum MessageType {
-		BuyStock, SellStock, ServerResponse, GetOrders, ServerSendOrders
+		BuyStock, SellStock, ServerResponse, GetOrders, ServerSendOrders, SubmitOrders
 	}
 
 	private SenderType senderType;
@@ -65,47 +66,125 @@ public class Message {
 
 	public static String createMessage(SenderType senderType, MessageType messageType,
 			HashMap<String, String> messageParameters) throws JsonProcessingException {
-		ObjectMapper mapper = new ObjectMapper();
-
-		return mapper.writeValueAsString(new Message(senderType, messageType, messageParameters));
+		return MessageCodec.writeMessage(new Message(senderType, messageType, messageParameters));
 	}
 
 	public static String createBuyStockMessage(String stockISIN, String amount) throws JsonProcessingException {
+		return MessageCodec.writeMessage(buyStockMessage(stockISIN, amount));
+	}
+
+	public static String createServerSendOrdersMessage(String order, long sequence) throws JsonProcessingException {
+		return MessageCodec.writeMessage(serverSendOrdersMessage(order, sequence));
+	}
+	
+	public static String createGetOrdersMessage() throws JsonProcessingException {
+		return MessageCodec.writeMessage(getOrdersMessage());
+	}
+	
+	public static String createGetOrdersMessage(long since, int limit) throws JsonProcessingException {
+		return MessageCodec.writeMessage(getOrdersMessage(since, limit));
+	}
+
+	public static String createSellStockMessage(String stockISIN, String amount) throws JsonProcessingException {
+		return MessageCodec.writeMessage(sellStockMessage(stockISIN, amount));
+	}
+
+	public static String createServerResponseMessage(boolean result) throws JsonProcessingException {
+		return MessageCodec.writeMessage(serverResponseMessage(result));
+	}
+
+	static Message buyStockMessage(String stockISIN, String amount) {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
 
 		messageParameters.put("stockISIN", stockISIN);
 		messageParameters.put("amount", amount);
 
-		return createMessage(SenderType.Client, MessageType.BuyStock, messageParameters);
+		return new Message(SenderType.Client, MessageType.BuyStock, messageParameters);
 	}
 
-	public static String createServerSendOrdersMessage(String order) throws JsonProcessingException {
+	// order with limit price, in the smallest unit of the currency
+	static Message buyStockMessage(String stockISIN, String amount, String price) {
+		Message message = buyStockMessage(stockISIN, amount);
+		message.messageParameters.put("price", price);
+		return message;
+	}
+
+	static Message serverSendOrdersMessage(String order, long sequence) {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
 		messageParameters.put("order", order);
-		return createMessage(SenderType.Server, MessageType.ServerSendOrders, messageParameters);
+		messageParameters.put("sequence", String.valueOf(sequence));
+		return new Message(SenderType.Server, MessageType.ServerSendOrders, messageParameters);
 	}
-	
-	public static String createGetOrdersMessage() throws JsonProcessingException {
+
+	// trade of an order of the client, "side" is BuyStock or SellStock and "sequence" the sequence number of the order
+	static Message serverSendTradeMessage(String stockISIN, MessageType side, long amount, long price, long sequence) {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
+		messageParameters.put("trade", side.name());
+		messageParameters.put("stockISIN", stockISIN);
+		messageParameters.put("amount", String.valueOf(amount));
+		messageParameters.put("price", String.valueOf(price));
+		messageParameters.put("sequence", String.valueOf(sequence));
+		return new Message(SenderType.Server, MessageType.ServerSendOrders, messageParameters);
+	}
 
-		return createMessage(SenderType.Client, MessageType.GetOrders, messageParameters);
+	static Message getOrdersMessage() {
+		HashMap<String, String> messageParameters = new HashMap<String, String>();
+
+		return new Message(SenderType.Client, MessageType.GetOrders, messageParameters);
 	}
-	
-	public static String createSellStockMessage(String stockISIN, String amount) throws JsonProcessingException {
+
+	// only orders starting with sequence number "since" are requested, at most "limit" orders
+	static Message getOrdersMessage(long since, int limit) {
+		HashMap<String, String> messageParameters = new HashMap<String, String>();
+
+		messageParameters.put("since", String.valueOf(since));
+		messageParameters.put("limit", String.valueOf(limit));
+
+		return new Message(SenderType.Client, MessageType.GetOrders, messageParameters);
+	}
+
+	static Message sellStockMessage(String stockISIN, String amount) {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
 
 		messageParameters.put("stockISIN", stockISIN);
 		messageParameters.put("amount", amount);
 
-		return createMessage(SenderType.Client, MessageType.SellStock, messageParameters);
+		return new Message(SenderType.Client, MessageType.SellStock, messageParameters);
 	}
 
-	public static String createServerResponseMessage(boolean result) throws JsonProcessingException {
+	// order with limit price, in the smallest unit of the currency
+	static Message sellStockMessage(String stockISIN, String amount, String price) {
+		Message message = sellStockMessage(stockISIN, amount);
+		message.messageParameters.put("price", price);
+		return message;
+	}
+
+	// several BuyStock and SellStock orders that are signed together, the parameters of order i end with "." + i
+	static Message submitOrdersMessage(List<Message> orders) {
+		HashMap<String, String> messageParameters = new HashMap<String, String>();
+		messageParameters.put("count", String.valueOf(orders.size()));
+		for (int i = 0; i < orders.size(); i++) {
+			messageParameters.put("messageType." + i, orders.get(i).getMessageType().name());
+			for (Map.Entry<String, String> parameter : orders.get(i).getMessageParameters().entrySet()) {
+				messageParameters.put(parameter.getKey() + "." + i, parameter.getValue());
+			}
+		}
+		return new Message(SenderType.Client, MessageType.SubmitOrders, messageParameters);
+	}
+
+	// response to several orders, "orders" is the number of accepted orders
+	static Message serverResponseMessage(boolean result, int orders) {
+		Message message = serverResponseMessage(result);
+		message.messageParameters.put("orders", String.valueOf(orders));
+		return message;
+	}
+
+	static Message serverResponseMessage(boolean result) {
 		HashMap<String, String> messageParameters = new HashMap<String, String>();
 
 		messageParameters.put("result", String.valueOf(result));
 
-		return createMessage(SenderType.Server, MessageType.ServerResponse, messageParameters);
+		return new Message(SenderType.Server, MessageType.ServerResponse, messageParameters);
 	}
 
 }
@@ -0,0 +1,248 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+
+import main.Message.MessageType;
+import main.Message.SenderType;
+
+/**
+ * Conversion of messages from and to their wire representation.
+ *
+ * Messages can be sent as JSON, as CBOR or in the COMPACT format. All JSON readers and writers are
+ * created once from one shared ObjectMapper. They are thread-safe and can be
+ * used by clients and server for every message.
+ *
+ * In CBOR a message is a map with the keys 1 (sender type), 2 (message type)
+ * and 3 (message parameters). A signed message is an array of client ID,
+ * sequence number, timestamp, content and signature, where content and
+ * signature are byte strings. So the
+ * signed content does not have to be escaped and the signature is not base64
+ * encoded like in JSON.
+ *
+ * The COMPACT format uses the same signed message as CBOR, but orders are
+ * encoded as {@link OrderRecord}, and SubmitOrders messages as the number of
+ * their message type followed by their orders. All other messages start with
+ * the number of their message type followed by their CBOR encoding.
+ */
+public final class MessageCodec {
+
+	// Formats in which messages can be sent between client and server
+	public enum WireFormat {
+		JSON, CBOR, COMPACT
+	}
+
+	private static final int SENDER_TYPE = 1;
+	private static final int MESSAGE_TYPE = 2;
+	private static final int MESSAGE_PARAMETERS = 3;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static final ObjectReader messageReader = mapper.readerFor(Message.class);
+	private static final ObjectWriter messageWriter = mapper.writerFor(Message.class);
+	private static final ObjectReader signedMessageReader = mapper.readerFor(SignedMessage.class);
+	private static final ObjectWriter signedMessageWriter = mapper.writerFor(SignedMessage.class);
+
+	private MessageCodec() {
+
+	}
+
+	/**
+	 * Converts a message to JSON
+	 *
+	 * @param message
+	 * @return String : JSON of message
+	 * @throws JsonProcessingException
+	 */
+	public static String writeMessage(Message message) throws JsonProcessingException {
+		return messageWriter.writeValueAsString(message);
+	}
+
+	/**
+	 * Reads a message from JSON
+	 *
+	 * @param json
+	 * @return Message
+	 * @throws JsonProcessingException
+	 */
+	public static Message readMessage(String json) throws JsonProcessingException {
+		return messageReader.readValue(json);
+	}
+
+	/**
+	 * Converts a signed message to JSON
+	 *
+	 * @param signedMessage
+	 * @return String : JSON of signed message
+	 * @throws JsonProcessingException
+	 */
+	public static String writeSignedMessage(SignedMessage signedMessage) throws JsonProcessingException {
+		return signedMessageWriter.writeValueAsString(signedMessage);
+	}
+
+	/**
+	 * Reads a signed message from JSON
+	 *
+	 * @param json
+	 * @return SignedMessage
+	 * @throws JsonProcessingException
+	 */
+	public static SignedMessage readSignedMessage(String json) throws JsonProcessingException {
+		return signedMessageReader.readValue(json);
+	}
+
+	/**
+	 * Converts a message to the given format
+	 *
+	 * @param message
+	 * @param format
+	 * @return byte[] : encoded message
+	 * @throws JsonProcessingException
+	 */
+	public static byte[] encodeMessage(Message message, WireFormat format) throws JsonProcessingException {
+		if (format == WireFormat.COMPACT) {
+			if (OrderRecord.isOrder(message.getMessageType())) {
+				try {
+					return OrderRecord.fromMessage(message, 0).encode();
+				} catch (IllegalArgumentException e) {
+					throw new JsonMappingException(null, "Invalid order", e);
+				}
+			}
+			if (message.getMessageType() == MessageType.SubmitOrders) {
+				try {
+					return OrderRecord.encodeBatch(OrderRecord.fromBatchMessage(message, 0));
+				} catch (IllegalArgumentException e) {
+					throw new JsonMappingException(null, "Invalid orders", e);
+				}
+			}
+			byte[] cbor = encodeMessage(message, WireFormat.CBOR);
+			return ByteBuffer.allocate(1 + cbor.length).put((byte) message.getMessageType().ordinal()).put(cbor)
+					.array();
+		}
+		if (format == WireFormat.CBOR) {
+			CBORObject parameters = CBORObject.NewMap();
+			for (String name : message.getMessageParameters().keySet()) {
+				parameters.Add(name, message.getMessageParameters().get(name));
+			}
+			CBORObject cbor = CBORObject.NewMap();
+			cbor.Add(SENDER_TYPE, message.getSenderType().name());
+			cbor.Add(MESSAGE_TYPE, message.getMessageType().name());
+			cbor.Add(MESSAGE_PARAMETERS, parameters);
+			return cbor.EncodeToBytes();
+		}
+		return messageWriter.writeValueAsBytes(message);
+	}
+
+	/**
+	 * Reads a message in the given format
+	 *
+	 * @param bytes  encoded message
+	 * @param format
+	 * @return Message
+	 * @throws IOException if the message can not be read
+	 */
+	public static Message decodeMessage(byte[] bytes, WireFormat format) throws IOException {
+		if (format == WireFormat.JSON) {
+			return messageReader.readValue(bytes);
+		}
+		if (format == WireFormat.COMPACT) {
+			if (OrderRecord.isRecord(bytes)) {
+				return OrderRecord.decode(bytes).toMessage();
+			}
+			if (OrderRecord.isBatch(bytes)) {
+				return OrderRecord.toBatchMessage(OrderRecord.decodeBatch(bytes));
+			}
+			if (bytes.length == 0) {
+				throw new IOException("Empty message");
+			}
+			return decodeMessage(Arrays.copyOfRange(bytes, 1, bytes.length), WireFormat.CBOR);
+		}
+		try {
+			CBORObject cbor = CBORObject.DecodeFromBytes(bytes);
+			Message message = new Message();
+			message.setSenderType(SenderType.valueOf(cbor.get(SENDER_TYPE).AsString()));
+			message.setMessageType(MessageType.valueOf(cbor.get(MESSAGE_TYPE).AsString()));
+			CBORObject parameters = cbor.get(MESSAGE_PARAMETERS);
+			HashMap<String, String> messageParameters = new HashMap<String, String>();
+			for (CBORObject name : parameters.getKeys()) {
+				messageParameters.put(name.AsString(), parameters.get(name).AsString());
+			}
+			message.setMessageParameters(messageParameters);
+			return message;
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid CBOR message", e);
+		}
+	}
+
+	/**
+	 * Converts a signed message to the given format
+	 *
+	 * @param signedMessage
+	 * @param format
+	 * @return byte[] : encoded signed message
+	 * @throws JsonProcessingException
+	 */
+	public static byte[] encodeSignedMessage(SignedMessage signedMessage, WireFormat format)
+			throws JsonProcessingException {
+		if (format != WireFormat.JSON) {
+			CBORObject cbor = CBORObject.NewArray();
+			cbor.Add(signedMessage.getClientId());
+			cbor.Add(signedMessage.getSequence());
+			cbor.Add(signedMessage.getTimestamp());
+			cbor.Add(signedMessage.contentBytes());
+			cbor.Add(signedMessage.getSignature());
+			return cbor.EncodeToBytes();
+		}
+		return signedMessageWriter.writeValueAsBytes(signedMessage);
+	}
+
+	/**
+	 * Reads a signed message in the given format
+	 *
+	 * @param bytes  encoded signed message
+	 * @param format
+	 * @return SignedMessage
+	 * @throws IOException if the message can not be read
+	 */
+	public static SignedMessage decodeSignedMessage(byte[] bytes, WireFormat format) throws IOException {
+		if (format == WireFormat.JSON) {
+			return signedMessageReader.readValue(bytes);
+		}
+		try {
+			CBORObject cbor = CBORObject.DecodeFromBytes(bytes);
+			if (cbor.getType() != CBORType.Array || cbor.size() != 5) {
+				throw new IOException("Invalid CBOR signed message");
+			}
+			return SignedMessage.binarySignedMessage(cbor.get(0).AsInt32Value(), cbor.get(1).AsInt64Value(),
+					cbor.get(2).AsInt64Value(), cbor.get(3).GetByteString(), cbor.get(4).GetByteString());
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid CBOR signed message", e);
+		}
+	}
+
+	/**
+	 * Creates the response that is sent if a message could not be processed
+	 *
+	 * @param text   description of the failure
+	 * @param format
+	 * @return byte[] : encoded failure
+	 */
+	static byte[] encodeFailure(String text, WireFormat format) {
+		if (format != WireFormat.JSON) {
+			return CBORObject.FromObject(text).EncodeToBytes();
+		}
+		return ("{\"" + text + "\"}").getBytes(StandardCharsets.UTF_8);
+	}
+
+}
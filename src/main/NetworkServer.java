@@ -0,0 +1,344 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Network front end of the {@link Server}.
+ *
+ * Clients connect over TCP and send their messages in frames (see
+ * {@link Frame}). All connections are handled by one selector thread with
+ * non-blocking I/O. Received messages are processed by a pool of worker
+ * threads, the messages of one connection are processed one after another such
+ * that responses are sent back in the order of the requests.
+ *
+ * A connection can only have MAX_PENDING frames that are processed or whose
+ * response is not written yet. If a client sends more, the server stops reading
+ * from its connection until half of them are done. So a client that sends
+ * faster than it is served, or that does not read its responses, fills up its
+ * socket buffers instead of the memory of the server.
+ */
+public class NetworkServer implements Runnable {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(NetworkServer.class);
+
+	// maximum number of frames of a connection that are processed or wait to be written
+	static final int MAX_PENDING = 64;
+
+	/**
+	 * State of a connected client
+	 */
+	private class Connection {
+		final SocketChannel channel;
+		final SelectionKey key;
+		ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+		// frames that still have to be written
+		final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+		// last processing task of this connection, following tasks are chained to it
+		CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+		// frames that were dispatched and whose response is not written yet, only
+		// used by the selector thread
+		int pending;
+		// true while nothing is read from the connection because of too many pending frames
+		boolean readPaused;
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+	}
+
+	private final OrderServer server;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ExecutorService workers;
+	// connections that have new frames to write
+	private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean running = true;
+
+	/**
+	 * Opens the listening socket of the server
+	 *
+	 * @param server  server that processes the received messages
+	 * @param port    port to listen on, 0 for any free port
+	 * @param workers number of threads processing messages
+	 * @throws IOException
+	 */
+	public NetworkServer(OrderServer server, int port, int workers) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.workers = Executors.newFixedThreadPool(workers);
+	}
+
+	/**
+	 * Getter for the port the server listens on
+	 *
+	 * @return int : port
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the server and closes all connections
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Connection connection;
+				while ((connection = pendingWrites.poll()) != null) {
+					if (connection.key.isValid()) {
+						updateInterest(connection);
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							if (key.isReadable()) {
+								read((Connection) key.attachment());
+							}
+							if (key.isValid() && key.isWritable()) {
+								write((Connection) key.attachment());
+							}
+						}
+					} catch (IOException e) {
+						logger.debug("Closing connection: " + e.getLocalizedMessage());
+						closeConnection(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.readBuffer) < 0) {
+			throw new IOException("Connection closed by client");
+		}
+		dispatchFrames(connection);
+	}
+
+	/**
+	 * Dispatches the complete frames in the read buffer of a connection, until too
+	 * many frames of the connection are pending
+	 */
+	private void dispatchFrames(Connection connection) throws IOException {
+		ByteBuffer buffer = connection.readBuffer;
+		buffer.flip();
+		while (buffer.remaining() >= Frame.HEADER_SIZE) {
+			if (connection.pending >= MAX_PENDING) {
+				// remaining frames stay in the buffer until the connection is resumed
+				connection.readPaused = true;
+				break;
+			}
+			int length = buffer.getInt(buffer.position());
+			Frame.checkLength(length);
+			if (buffer.remaining() < Frame.HEADER_SIZE + length) {
+				if (buffer.capacity() < Frame.HEADER_SIZE + length) {
+					ByteBuffer larger = ByteBuffer.allocate(Frame.HEADER_SIZE + length);
+					larger.put(buffer);
+					connection.readBuffer = larger;
+					updateInterest(connection);
+					return;
+				}
+				break;
+			}
+			buffer.getInt();
+			byte kind = buffer.get();
+			byte[] payload = new byte[length - 1];
+			buffer.get(payload);
+			connection.pending++;
+			dispatch(connection, kind, payload);
+		}
+		buffer.compact();
+		updateInterest(connection);
+	}
+
+	/**
+	 * Lets the selector watch a connection for reading, unless it is paused, and
+	 * for writing, if it has frames to write
+	 */
+	private void updateInterest(Connection connection) {
+		int ops = connection.readPaused ? 0 : SelectionKey.OP_READ;
+		if (!connection.writeQueue.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		connection.key.interestOps(ops);
+	}
+
+	/**
+	 * Hands a received frame over to the workers
+	 */
+	private void dispatch(Connection connection, byte kind, byte[] payload) {
+		connection.tail = connection.tail.thenRunAsync(() -> {
+			byte[] result;
+			try {
+				result = process(kind, payload);
+			} catch (RuntimeException e) {
+				// a failed task would stop all following tasks of the connection
+				e.printStackTrace();
+				result = MessageCodec.encodeFailure("Failure", WireFormat.JSON);
+			}
+			connection.writeQueue.add(Frame.encode(kind, result));
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}, workers);
+	}
+
+	/**
+	 * Processes the payload of a received frame
+	 *
+	 * @return byte[] : payload of the response
+	 */
+	private byte[] process(byte kind, byte[] payload) {
+		if (kind == Frame.REGISTER) {
+			return ByteBuffer.allocate(4).putInt(server.registerClient(payload)).array();
+		}
+		WireFormat format = Frame.formatOf(kind);
+		if (format == null) {
+			return MessageCodec.encodeFailure("Failure", WireFormat.JSON);
+		}
+		return server.acceptMessage(payload, format);
+	}
+
+	private void write(Connection connection) throws IOException {
+		ByteBuffer frame;
+		while ((frame = connection.writeQueue.peek()) != null) {
+			connection.channel.write(frame);
+			if (frame.hasRemaining()) {
+				return;
+			}
+			connection.writeQueue.poll();
+			connection.pending--;
+		}
+		if (connection.readPaused && connection.pending <= MAX_PENDING / 2) {
+			connection.readPaused = false;
+			// frames that were already read are dispatched first
+			dispatchFrames(connection);
+		}
+		// a worker may have added a frame after the queue was found empty, it is
+		// written with the next OP_WRITE
+		updateInterest(connection);
+	}
+
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void shutdown() {
+		for (SelectionKey key : selector.keys()) {
+			closeConnection(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Starts the server as own process that can be reached over the network.
+	 *
+	 * @param args optional port to listen on, default 5000
+	 */
+	public static void main(String[] args) throws IOException {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get("scc-configs"));
+		Server.masterKey = Server.generateKey();
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		// clients are split over independent shards if a number is given with -Dshards=<n>
+		int shards = Integer.getInteger("shards", 0);
+		// orders are matched in order books if a number of threads is given with -Dmatching=<n>
+		int matching = Integer.getInteger("matching", 0);
+		if (shards > 0) {
+			ShardedServer shardedServer = new ShardedServer(shards);
+			shardedServer.registerMBeans("network-" + port);
+			if (matching > 0) {
+				shardedServer.enableMatching(matching);
+			}
+			NetworkServer networkServer = new NetworkServer(shardedServer, port,
+					Runtime.getRuntime().availableProcessors());
+			logger.info("Listening on port " + networkServer.getPort() + " with " + shards + " shards");
+			networkServer.run();
+			return;
+		}
+		// orders are kept off-heap if selected with -DoffHeap=true
+		Server server = Boolean.getBoolean("offHeap") ? new Server(new OrderStore(new OrderArena())) : new Server();
+		server.metrics.registerMBean("network-" + port);
+		// orders are stored asynchronously if a policy is given with -Dingestion=<policy>
+		String ingestion = System.getProperty("ingestion");
+		if (ingestion != null) {
+			server.enableIngestion(Runtime.getRuntime().availableProcessors(), 10000, 64,
+					OrderIngestion.OverflowPolicy.valueOf(ingestion));
+		}
+		if (matching > 0) {
+			server.enableMatching(matching);
+		}
+		// orders and clients are kept on disk if a directory is given with -Djournal=<dir>,
+		// the master key is kept in <dir>/master.key or the file given with -DmasterKey=<file>
+		String journal = System.getProperty("journal");
+		if (journal != null) {
+			Path directory = Paths.get(journal);
+			server.enableJournal(directory,
+					Paths.get(System.getProperty("masterKey", directory.resolve(KeyManager.MASTER_KEY_FILE).toString())));
+		}
+		NetworkServer networkServer = new NetworkServer(server, port,
+				Runtime.getRuntime().availableProcessors());
+		logger.info("Listening on port " + networkServer.getPort());
+		networkServer.run();
+	}
+
+}
@@ -0,0 +1,115 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap memory for the encrypted orders of the {@link OrderStore}.
+ *
+ * Memory is taken from the operating system in large direct chunks, which are
+ * divided into blocks of fixed size. Each block holds the ring of one client
+ * with {@link OrderStore#CAPACITY} slots of {@link #getSlotSize()} bytes. The
+ * garbage collector only sees the few chunks instead of one array per order.
+ * Blocks are never given back, as clients are never removed.
+ */
+public class OrderArena {
+
+	// default size of a slot, large enough for the ciphertext of usual orders
+	public static final int DEFAULT_SLOT_SIZE = 512;
+	// default size of a chunk taken from the operating system
+	public static final int DEFAULT_CHUNK_SIZE = 16 << 20;
+
+	private final int slotSize;
+	private final int blockSize;
+	private final int blocksPerChunk;
+
+	// guarded by "this"
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private int nextBlock;
+
+	// bytes of the slots that currently hold an order
+	private final AtomicLong usedBytes = new AtomicLong();
+	// orders that were too large for a slot
+	private final LongAdder overflows = new LongAdder();
+
+	public OrderArena() {
+		this(DEFAULT_SLOT_SIZE, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor of arena
+	 *
+	 * @param slotSize  bytes of a single slot including its length field. Orders
+	 *                  that do not fit are kept on the heap
+	 * @param chunkSize bytes that are allocated at once, at least the size of one
+	 *                  block
+	 */
+	public OrderArena(int slotSize, int chunkSize) {
+		if (slotSize <= OrderStore.SLOT_HEADER_SIZE) {
+			throw new IllegalArgumentException("Slot size " + slotSize + " is too small");
+		}
+		this.slotSize = slotSize;
+		this.blockSize = slotSize * OrderStore.CAPACITY;
+		this.blocksPerChunk = Math.max(1, chunkSize / blockSize);
+	}
+
+	/**
+	 * Allocates the block for the ring of a client. The block is filled with zeros.
+	 *
+	 * @return ByteBuffer : block of CAPACITY slots
+	 */
+	synchronized ByteBuffer allocateBlock() {
+		int chunk = nextBlock / blocksPerChunk;
+		if (chunk == chunks.size()) {
+			chunks.add(ByteBuffer.allocateDirect(blocksPerChunk * blockSize));
+		}
+		int offset = (nextBlock % blocksPerChunk) * blockSize;
+		nextBlock++;
+		return chunks.get(chunk).slice(offset, blockSize);
+	}
+
+	void addUsedBytes(long bytes) {
+		usedBytes.addAndGet(bytes);
+	}
+
+	void countOverflow() {
+		overflows.increment();
+	}
+
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	/**
+	 * Off-heap memory taken from the operating system
+	 *
+	 * @return long : bytes
+	 */
+	public synchronized long getAllocatedBytes() {
+		return (long) chunks.size() * blocksPerChunk * blockSize;
+	}
+
+	/**
+	 * Memory of the slots used by stored orders, without the slots that are still
+	 * empty
+	 *
+	 * @return long : bytes
+	 */
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * Number of orders that did not fit into a slot and were kept on the heap.
+	 * Many overflows show that the slot size is too small.
+	 *
+	 * @return long
+	 */
+	public long getOverflows() {
+		return overflows.sum();
+	}
+
+}
@@ -0,0 +1,257 @@
+package main;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import main.Message.MessageType;
+
+/**
+ * Order book of a single stock that matches buy and sell orders with price-time
+ * priority.
+ *
+ * An incoming order is matched against the resting orders of the other side,
+ * best price first and at equal price in the order they arrived. Each match
+ * creates a {@link Trade} at the price of the resting order. What is left of a
+ * limit order rests in the book, what is left of an order without limit is
+ * dropped.
+ *
+ * Price levels keep their orders in arrays of primitives and the levels of a
+ * side are kept in a sorted array, so matching does not create any objects
+ * except the trades. The book is not thread-safe, it is meant to be used by a
+ * single thread, see {@link MatchingEngine}.
+ */
+public class OrderBook {
+
+	// initial number of orders of a price level
+	private static final int LEVEL_CAPACITY = 16;
+	// initial number of price levels of a side
+	private static final int SIDE_CAPACITY = 64;
+
+	/**
+	 * Orders with the same price in the order they arrived, kept in a ring of
+	 * primitive arrays
+	 */
+	private static class PriceLevel {
+		long price;
+		int[] clientIds = new int[LEVEL_CAPACITY];
+		long[] sequences = new long[LEVEL_CAPACITY];
+		long[] amounts = new long[LEVEL_CAPACITY];
+		int head;
+		int size;
+		// sum of the amounts of all orders
+		long total;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add(int clientId, long sequence, long amount) {
+			if (size == amounts.length) {
+				grow();
+			}
+			int tail = (head + size) & (amounts.length - 1);
+			clientIds[tail] = clientId;
+			sequences[tail] = sequence;
+			amounts[tail] = amount;
+			size++;
+			total += amount;
+		}
+
+		// takes up to "amount" from the oldest order and removes it if it is filled
+		long take(long amount) {
+			long filled = Math.min(amount, amounts[head]);
+			amounts[head] -= filled;
+			total -= filled;
+			if (amounts[head] == 0) {
+				head = (head + 1) & (amounts.length - 1);
+				size--;
+			}
+			return filled;
+		}
+
+		private void grow() {
+			int capacity = amounts.length * 2;
+			int[] newClientIds = new int[capacity];
+			long[] newSequences = new long[capacity];
+			long[] newAmounts = new long[capacity];
+			for (int i = 0; i < size; i++) {
+				int index = (head + i) & (amounts.length - 1);
+				newClientIds[i] = clientIds[index];
+				newSequences[i] = sequences[index];
+				newAmounts[i] = amounts[index];
+			}
+			clientIds = newClientIds;
+			sequences = newSequences;
+			amounts = newAmounts;
+			head = 0;
+		}
+	}
+
+	/**
+	 * Price levels of one side of the book. The levels are sorted such that the
+	 * best price is the last one, so levels that are used up are removed without
+	 * moving the others.
+	 */
+	private static class Side {
+		// true for buy orders, higher prices are better
+		final boolean bids;
+		PriceLevel[] levels = new PriceLevel[SIDE_CAPACITY];
+		int count;
+		// emptied levels that are used again
+		PriceLevel[] free = new PriceLevel[SIDE_CAPACITY];
+		int freeCount;
+
+		Side(boolean bids) {
+			this.bids = bids;
+		}
+
+		PriceLevel best() {
+			return count == 0 ? null : levels[count - 1];
+		}
+
+		void removeBest() {
+			PriceLevel level = levels[--count];
+			levels[count] = null;
+			level.head = 0;
+			if (freeCount < free.length) {
+				free[freeCount++] = level;
+			}
+		}
+
+		// true if "price" comes before "other" when sorted from worst to best
+		private boolean worse(long price, long other) {
+			return bids ? price < other : price > other;
+		}
+
+		PriceLevel levelFor(long price) {
+			// binary search for the first level that is not worse than the price
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (worse(levels[mid].price, price)) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			if (low < count && levels[low].price == price) {
+				return levels[low];
+			}
+			if (count == levels.length) {
+				levels = Arrays.copyOf(levels, count * 2);
+			}
+			System.arraycopy(levels, low, levels, low + 1, count - low);
+			PriceLevel level = freeCount > 0 ? free[--freeCount] : new PriceLevel();
+			level.price = price;
+			levels[low] = level;
+			count++;
+			return level;
+		}
+	}
+
+	private final String isin;
+	private final Side bids = new Side(true);
+	private final Side asks = new Side(false);
+
+	/**
+	 * Creates an empty book
+	 *
+	 * @param isin ISIN of the stock
+	 */
+	public OrderBook(String isin) {
+		this.isin = isin;
+	}
+
+	public String getIsin() {
+		return isin;
+	}
+
+	/**
+	 * Matches an order against the resting orders and lets a limit order rest with
+	 * its remaining amount
+	 *
+	 * @param clientId client that sent the order
+	 * @param order    order for the stock of this book
+	 * @param trades   gets every trade of the order
+	 * @return long : amount of the order that rests in the book
+	 */
+	public long match(int clientId, OrderRecord order, Consumer<Trade> trades) {
+		boolean buy = order.getType() == MessageType.BuyStock;
+		long limit = order.getPrice();
+		Side opposite = buy ? asks : bids;
+		long remaining = order.getAmount();
+
+		PriceLevel level;
+		while (remaining > 0 && (level = opposite.best()) != null
+				&& (limit == OrderRecord.MARKET_PRICE || (buy ? level.price <= limit : level.price >= limit))) {
+			while (remaining > 0 && !level.isEmpty()) {
+				int restingClient = level.clientIds[level.head];
+				long restingSequence = level.sequences[level.head];
+				long filled = level.take(remaining);
+				remaining -= filled;
+				trades.accept(buy
+						? new Trade(isin, level.price, filled, clientId, order.getSequence(), restingClient,
+								restingSequence)
+						: new Trade(isin, level.price, filled, restingClient, restingSequence, clientId,
+								order.getSequence()));
+			}
+			if (level.isEmpty()) {
+				opposite.removeBest();
+			}
+		}
+
+		if (remaining > 0 && limit != OrderRecord.MARKET_PRICE) {
+			(buy ? bids : asks).levelFor(limit).add(clientId, order.getSequence(), remaining);
+			return remaining;
+		}
+		return 0;
+	}
+
+	/**
+	 * Highest price of resting buy orders
+	 *
+	 * @return long : price, -1 if there are none
+	 */
+	public long getBestBid() {
+		PriceLevel best = bids.best();
+		return best == null ? -1 : best.price;
+	}
+
+	/**
+	 * Lowest price of resting sell orders
+	 *
+	 * @return long : price, -1 if there are none
+	 */
+	public long getBestAsk() {
+		PriceLevel best = asks.best();
+		return best == null ? -1 : best.price;
+	}
+
+	/**
+	 * Number of shares resting at a price
+	 *
+	 * @param buy   side of the book
+	 * @param price
+	 * @return long : amount of all orders with the price
+	 */
+	public long getDepth(boolean buy, long price) {
+		Side side = buy ? bids : asks;
+		for (int i = 0; i < side.count; i++) {
+			if (side.levels[i].price == price) {
+				return side.levels[i].total;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Number of price levels of both sides
+	 *
+	 * @return int
+	 */
+	public int getLevels() {
+		return bids.count + asks.count;
+	}
+
+}
@@ -0,0 +1,181 @@
+package main;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of already decrypted orders.
+ *
+ * Entries are stored per client and slot of the ring buffer in the
+ * {@link OrderStore}. Each entry remembers the sequence number of the order it
+ * belongs to, so an entry of an order that was overwritten in the meantime is
+ * never given back. The cache holds at most a maximum number of entries and a
+ * maximum number of bytes, the oldest entries are evicted first. Entries older
+ * than the time to live are dropped.
+ */
+public class OrderCache {
+
+	/**
+	 * Decrypted order of a slot
+	 */
+	private static class Entry {
+		final long key;
+		final long sequence;
+		final String order;
+		final long created;
+		final int size;
+
+		Entry(long key, long sequence, String order, long created) {
+			this.key = key;
+			this.sequence = sequence;
+			this.order = order;
+			this.created = created;
+			// rough size of the entry on the heap
+			this.size = 64 + 2 * order.length();
+		}
+	}
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long ttlNanos;
+
+	private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+	// entries in the order they were added, used for eviction
+	private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+	// length of insertionOrder, which also contains already replaced entries
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong usedBytes = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructor of cache
+	 *
+	 * @param maxEntries maximum number of cached orders
+	 * @param maxBytes   maximum memory used by cached orders
+	 * @param ttlMillis  time after which cached orders are dropped, 0 for no limit
+	 */
+	public OrderCache(int maxEntries, long maxBytes, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Long.MAX_VALUE;
+	}
+
+	private static long key(int clientId, long sequence) {
+		return ((long) clientId << 32) | (sequence % OrderStore.CAPACITY);
+	}
+
+	/**
+	 * Gives back the decrypted order with the given sequence number of a client
+	 *
+	 * @param clientId
+	 * @param sequence
+	 * @return String : decrypted order, null if it is not cached
+	 */
+	public String get(int clientId, long sequence) {
+		Entry entry = entries.get(key(clientId, sequence));
+		if (entry == null || entry.sequence != sequence) {
+			misses.increment();
+			return null;
+		}
+		if (System.nanoTime() - entry.created > ttlNanos) {
+			remove(entry);
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.order;
+	}
+
+	/**
+	 * Adds a decrypted order to the cache
+	 *
+	 * @param clientId
+	 * @param sequence
+	 * @param order    decrypted order
+	 */
+	public void put(int clientId, long sequence, String order) {
+		Entry entry = new Entry(key(clientId, sequence), sequence, order, System.nanoTime());
+		if (entry.size > maxBytes) {
+			return;
+		}
+		Entry old = entries.put(entry.key, entry);
+		if (old != null) {
+			usedBytes.addAndGet(-old.size);
+		}
+		usedBytes.addAndGet(entry.size);
+		insertionOrder.add(entry);
+		queued.incrementAndGet();
+		evict();
+	}
+
+	/**
+	 * Removes the cached order of the slot the given sequence number is stored in.
+	 * Has to be called when an order in the ring buffer is overwritten.
+	 *
+	 * @param clientId
+	 * @param sequence sequence number of the new order
+	 */
+	public void invalidate(int clientId, long sequence) {
+		Entry entry = entries.get(key(clientId, sequence));
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	private void remove(Entry entry) {
+		if (entries.remove(entry.key, entry)) {
+			usedBytes.addAndGet(-entry.size);
+		}
+	}
+
+	private void evict() {
+		long now = System.nanoTime();
+		Entry oldest;
+		while ((oldest = insertionOrder.peek()) != null) {
+			boolean stale = entries.get(oldest.key) != oldest;
+			boolean expired = now - oldest.created > ttlNanos;
+			boolean full = entries.size() > maxEntries || usedBytes.get() > maxBytes
+					|| queued.get() > 2 * maxEntries;
+			if (!stale && !expired && !full) {
+				return;
+			}
+			if (insertionOrder.remove(oldest)) {
+				queued.decrementAndGet();
+				remove(oldest);
+			}
+		}
+	}
+
+	/**
+	 * Number of cached orders
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Memory that is used by cached orders
+	 *
+	 * @return long : bytes
+	 */
+	public long usedBytes() {
+		return usedBytes.get();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+}
@@ -0,0 +1,230 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import COSE.CoseException;
+import main.ServerMetrics.Stage;
+
+/**
+ * Asynchronous stage of the {@link Server} that encrypts and stores orders.
+ *
+ * Accepted orders are put into bounded queues and the caller gets its response
+ * right away, without waiting for the encryption. The queues are split into
+ * shards by client ID, each shard is drained by its own worker thread. A worker
+ * takes up to batchSize orders from its queue at once. Every order is still
+ * encrypted and stored on its own, as each order is encrypted with its own
+ * nonce, but the journal is synced only once for all of them. As all orders of
+ * a client go through the same shard, they are stored in the order they were
+ * accepted. An order is only handed over to matching after it was stored, so
+ * orders that are dropped from a full queue are never matched.
+ *
+ * What happens if a queue is full is chosen with the {@link OverflowPolicy}.
+ */
+public class OrderIngestion implements AutoCloseable {
+
+	// Behavior if the queue of a shard is full
+	public enum OverflowPolicy {
+		// caller waits until there is space in the queue
+		Block,
+		// new order is not accepted and the caller gets a failure
+		Reject,
+		// oldest waiting order of the shard is dropped to make space for the new one
+		Shed
+	}
+
+	/**
+	 * Order that waits to be encrypted and stored
+	 */
+	private static class PendingOrder {
+		final int clientId;
+		final OrderRecord order;
+
+		PendingOrder(int clientId, OrderRecord order) {
+			this.clientId = clientId;
+			this.order = order;
+		}
+	}
+
+	private final Server server;
+	private final OverflowPolicy policy;
+	private final int batchSize;
+	private final List<ArrayBlockingQueue<PendingOrder>> shards;
+	private final Thread[] workers;
+	private volatile boolean running = true;
+
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder shed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Creates the queues and starts one worker per shard
+	 *
+	 * @param server    server whose orders are stored
+	 * @param shards    number of queues and workers
+	 * @param capacity  maximum number of waiting orders per shard
+	 * @param batchSize maximum number of orders a worker takes from its queue at
+	 *                  once
+	 * @param policy    behavior if a queue is full
+	 */
+	public OrderIngestion(Server server, int shards, int capacity, int batchSize, OverflowPolicy policy) {
+		this.server = server;
+		this.policy = policy;
+		this.batchSize = batchSize;
+		this.shards = new ArrayList<ArrayBlockingQueue<PendingOrder>>(shards);
+		this.workers = new Thread[shards];
+		for (int i = 0; i < shards; i++) {
+			ArrayBlockingQueue<PendingOrder> queue = new ArrayBlockingQueue<PendingOrder>(capacity);
+			this.shards.add(queue);
+			workers[i] = new Thread(() -> drain(queue), "order-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	private ArrayBlockingQueue<PendingOrder> shardOf(int clientId) {
+		int h = clientId * 0x9E3779B9;
+		return shards.get(Math.floorMod(h ^ (h >>> 16), shards.size()));
+	}
+
+	/**
+	 * Hands an order over to be encrypted, stored and matched later
+	 *
+	 * @param clientId
+	 * @param order
+	 * @return boolean : false if the order was not accepted
+	 */
+	public boolean submit(int clientId, OrderRecord order) {
+		if (!running) {
+			return false;
+		}
+		ArrayBlockingQueue<PendingOrder> queue = shardOf(clientId);
+		PendingOrder pending = new PendingOrder(clientId, order);
+		switch (policy) {
+		case Block:
+			try {
+				queue.put(pending);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		case Shed:
+			while (!queue.offer(pending)) {
+				if (queue.poll() != null) {
+					shed.increment();
+				}
+			}
+			return true;
+		default:
+			if (queue.offer(pending)) {
+				return true;
+			}
+			rejected.increment();
+			return false;
+		}
+	}
+
+	private void drain(ArrayBlockingQueue<PendingOrder> queue) {
+		List<PendingOrder> batch = new ArrayList<PendingOrder>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			for (PendingOrder pending : batch) {
+				store(pending);
+			}
+			// the orders taken at once are synced to the journal together
+			OrderJournal journal = server.journal;
+			if (journal != null) {
+				journal.sync();
+			}
+			batch.clear();
+		}
+	}
+
+	private void store(PendingOrder pending) {
+		long start = System.nanoTime();
+		try {
+			if (server.saveOrderEncrypted(pending.order.encode(), pending.clientId)) {
+				server.match(pending.clientId, pending.order);
+			} else {
+				failed.increment();
+			}
+		} catch (CoseException | RuntimeException e) {
+			e.printStackTrace();
+			failed.increment();
+		}
+		server.metrics.record(Stage.Encrypt, start);
+	}
+
+	/**
+	 * Number of orders that wait to be stored
+	 *
+	 * @return int
+	 */
+	public int getPending() {
+		int pending = 0;
+		for (ArrayBlockingQueue<PendingOrder> queue : shards) {
+			pending += queue.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * Number of waiting orders of every shard
+	 *
+	 * @return int[] : waiting orders by shard
+	 */
+	public int[] getQueueDepths() {
+		int[] depths = new int[shards.size()];
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = shards.get(i).size();
+		}
+		return depths;
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public long getShed() {
+		return shed.sum();
+	}
+
+	/**
+	 * Number of accepted orders that could not be encrypted or stored
+	 *
+	 * @return long
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/**
+	 * Stops accepting orders and waits until all waiting orders are stored
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,601 @@
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.securecryptoconfig.SCCException;
+
+import main.KeyManager.WrappedKey;
+import main.OrderStore.StoredOrder;
+
+/**
+ * Append-only journal of the encrypted orders of all clients.
+ *
+ * Orders are written into memory-mapped segment files of fixed size, so
+ * appending an order only copies it into memory and needs no system call. When
+ * a segment is full a new one is started. Only the segment that is written to
+ * stays mapped, a full segment is unmapped as soon as it was forced to disk.
+ * Records of older segments are read from their files when they are needed, so
+ * a growing journal does not use more address space. {@link #sync()} waits until
+ * everything written so far is on disk. Threads that call it while a sync is
+ * running wait for it and are then served together by a single following sync,
+ * which covers all orders written in the meantime (group commit). In addition
+ * a background thread syncs in a fixed interval, which bounds the loss of
+ * orders that are written without waiting for a sync.
+ *
+ * Each record consists of its length, the client ID, the sequence number of the
+ * order, a CRC32 checksum and the encrypted order. When a journal is opened all
+ * existing segments are read in and an index of the records of each client is
+ * built, which keeps the positions of the records in memory. A record that was only partly written before a crash ends the journal.
+ *
+ * Besides the orders the journal keeps the registrations of the clients and
+ * their data keys wrapped with the master key, such that a restarted server
+ * knows the clients of its orders and can decrypt them. These records have a
+ * negative sequence number and are only read when the server is restored.
+ */
+public class OrderJournal implements AutoCloseable {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(OrderJournal.class);
+
+	// length, clientId, sequence and checksum in front of every order
+	private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 4;
+	// default size of a segment file
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	// default interval of the background sync
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+
+	// sequence number of records that contain the public key of a client
+	private static final long CLIENT_RECORD = -1;
+	// sequence number of records that contain the wrapped data key of a client
+	private static final long DATA_KEY_RECORD = -2;
+
+	private static final String SEGMENT_PREFIX = "orders-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	/**
+	 * Record read back from the journal
+	 */
+	private static class Record {
+		final int clientId;
+		final long sequence;
+		final byte[] content;
+
+		Record(int clientId, long sequence, byte[] content) {
+			this.clientId = clientId;
+			this.sequence = sequence;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * Positions of the records of a single client, ordered by sequence number
+	 */
+	private static class ClientIndex {
+		long[] positions = new long[16];
+		long[] sequences = new long[16];
+		int size;
+
+		synchronized void add(long sequence, long position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+				sequences = Arrays.copyOf(sequences, size * 2);
+			}
+			// concurrent appends of one client can reach the journal out of order
+			int i = size;
+			while (i > 0 && sequences[i - 1] > sequence) {
+				positions[i] = positions[i - 1];
+				sequences[i] = sequences[i - 1];
+				i--;
+			}
+			positions[i] = position;
+			sequences[i] = sequence;
+			size++;
+		}
+
+		synchronized long[] find(long since, int limit) {
+			int first = Arrays.binarySearch(sequences, 0, size, since);
+			if (first < 0) {
+				first = -first - 1;
+			}
+			int end = (int) Math.min(size, (long) first + limit);
+			return Arrays.copyOfRange(positions, first, Math.max(first, end));
+		}
+	}
+
+	private final Path directory;
+	private final int segmentSize;
+
+	// files of all segments, a position in the journal is segment * segmentSize + offset
+	private final CopyOnWriteArrayList<Path> segmentFiles = new CopyOnWriteArrayList<Path>();
+	private final ConcurrentHashMap<Integer, ClientIndex> index = new ConcurrentHashMap<Integer, ClientIndex>();
+	// positions of the records that are no orders, found when the journal was opened
+	private final List<Long> keyRecords = new ArrayList<Long>();
+
+	// guarded by "this"
+	private MappedByteBuffer current;
+	private int currentSegment;
+	private int currentOffset;
+	private long writePosition;
+	private int maxClientId = -1;
+	// full segments that stay mapped until they are forced to disk, oldest first
+	private final List<MappedByteBuffer> unsynced = new ArrayList<MappedByteBuffer>();
+
+	// guarded by "syncLock"
+	private final Object syncLock = new Object();
+	private long syncedPosition;
+
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Opens the journal in the given directory and starts the background sync
+	 *
+	 * @param directory          directory of the segment files, created if missing
+	 * @param segmentSize        size of a single segment file in bytes
+	 * @param syncIntervalMillis interval in which written orders are forced to
+	 *                           disk, 0 to only sync on {@link #sync()}
+	 * @return OrderJournal : opened journal
+	 * @throws IOException
+	 */
+	public static OrderJournal open(Path directory, int segmentSize, long syncIntervalMillis) throws IOException {
+		OrderJournal journal = new OrderJournal(directory, segmentSize);
+		if (syncIntervalMillis > 0) {
+			journal.startSync(syncIntervalMillis);
+		}
+		return journal;
+	}
+
+	/**
+	 * Opens the journal in the given directory and reads in all existing segments
+	 *
+	 * @param directory   directory of the segment files, created if missing
+	 * @param segmentSize size of a single segment file in bytes
+	 * @throws IOException
+	 */
+	private OrderJournal(Path directory, int segmentSize) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory);
+
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		if (files.isEmpty()) {
+			files.add(segmentFile(0));
+		}
+		segmentFiles.addAll(files);
+		int last = files.size() - 1;
+		for (int i = 0; i < files.size(); i++) {
+			// all but the last segment are unmapped again once nothing refers to them
+			MappedByteBuffer segment = map(files.get(i));
+			int end = scan(i, segment);
+			if (i == last) {
+				current = segment;
+				currentSegment = i;
+				currentOffset = end;
+				writePosition = (long) i * segmentSize + end;
+			}
+		}
+		syncedPosition = writePosition;
+	}
+
+	/**
+	 * Starts the thread that forces written orders to disk in a fixed interval.
+	 * Only called once the journal is completely constructed.
+	 */
+	private void startSync(long syncIntervalMillis) {
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "order-journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private Path segmentFile(int number) {
+		return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private MappedByteBuffer map(Path file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			if (raf.length() != segmentSize) {
+				raf.setLength(segmentSize);
+			}
+			// mapping stays valid after the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	/**
+	 * Reads all records of a segment into the index
+	 *
+	 * @return int : offset behind the last valid record
+	 */
+	private int scan(int segment, MappedByteBuffer mapped) {
+		ByteBuffer buffer = mapped.duplicate();
+		int offset = 0;
+		while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+			int length = buffer.getInt(offset);
+			if (length <= 0 || length > segmentSize - offset - RECORD_HEADER_SIZE) {
+				break;
+			}
+			int clientId = buffer.getInt(offset + 4);
+			long sequence = buffer.getLong(offset + 8);
+			int checksum = buffer.getInt(offset + 16);
+			if (checksum != checksum(buffer, offset + RECORD_HEADER_SIZE, length)) {
+				logger.warn("Journal ends with incomplete record in segment " + segment + " at offset " + offset);
+				break;
+			}
+			long position = (long) segment * segmentSize + offset;
+			if (sequence < 0) {
+				keyRecords.add(position);
+			} else {
+				index.computeIfAbsent(clientId, id -> new ClientIndex()).add(sequence, position);
+			}
+			maxClientId = Math.max(maxClientId, clientId);
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		return offset;
+	}
+
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer content = buffer.duplicate();
+		content.limit(offset + length).position(offset);
+		crc.update(content);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends an encrypted order to the journal. The order is not yet on disk when
+	 * this method returns.
+	 *
+	 * @param clientId
+	 * @param sequence       sequence number of the order in the {@link OrderStore}
+	 * @param encryptedOrder
+	 * @return long : position of the record in the journal
+	 * @throws IOException if a new segment can not be created or the order does
+	 *                     not fit into a segment
+	 */
+	public long append(int clientId, long sequence, byte[] encryptedOrder) throws IOException {
+		long position = write(clientId, sequence, encryptedOrder);
+		index.computeIfAbsent(clientId, id -> new ClientIndex()).add(sequence, position);
+		return position;
+	}
+
+	/**
+	 * Appends the public key of a newly registered client, or the new key of a
+	 * client whose key was replaced. The record is not yet on disk when this method
+	 * returns.
+	 *
+	 * @param clientId
+	 * @param publicKey
+	 * @throws IOException if a new segment can not be created
+	 */
+	public void appendClient(int clientId, byte[] publicKey) throws IOException {
+		write(clientId, CLIENT_RECORD, publicKey);
+	}
+
+	/**
+	 * Appends the data key of a client wrapped with a master key. The record is
+	 * not yet on disk when this method returns.
+	 *
+	 * @param clientId
+	 * @param wrappedKey
+	 * @throws IOException if a new segment can not be created
+	 */
+	public void appendDataKey(int clientId, WrappedKey wrappedKey) throws IOException {
+		byte[] content = ByteBuffer.allocate(4 + wrappedKey.wrapped.length).putInt(wrappedKey.masterVersion)
+				.put(wrappedKey.wrapped).array();
+		write(clientId, DATA_KEY_RECORD, content);
+	}
+
+	/**
+	 * Writes a record into the current segment
+	 *
+	 * @return long : position of the record in the journal
+	 */
+	private long write(int clientId, long sequence, byte[] content) throws IOException {
+		int recordSize = RECORD_HEADER_SIZE + content.length;
+		if (recordSize > segmentSize) {
+			throw new IOException("Record of " + content.length + " bytes does not fit into a segment");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		long position;
+		synchronized (this) {
+			if (currentOffset + recordSize > segmentSize) {
+				roll();
+			}
+			int offset = currentOffset;
+			position = writePosition;
+			// the length is written last, so a record is only visible after it is complete
+			current.putInt(offset + 4, clientId);
+			current.putLong(offset + 8, sequence);
+			current.putInt(offset + 16, (int) crc.getValue());
+			current.put(offset + RECORD_HEADER_SIZE, content);
+			current.putInt(offset, content.length);
+			currentOffset += recordSize;
+			writePosition += recordSize;
+			maxClientId = Math.max(maxClientId, clientId);
+		}
+		return position;
+	}
+
+	/**
+	 * Starts a new segment. Has to be called while holding the lock of the journal.
+	 */
+	private void roll() throws IOException {
+		int next = segmentFiles.size();
+		Path file = segmentFile(next);
+		MappedByteBuffer mapped = map(file);
+		// the full segment is unmapped by the next sync
+		unsynced.add(current);
+		segmentFiles.add(file);
+		current = mapped;
+		currentSegment = next;
+		currentOffset = 0;
+		writePosition = (long) next * segmentSize;
+	}
+
+	/**
+	 * Forces all orders that were appended so far to disk. Callers that arrive
+	 * while a sync is running are served by the following sync together.
+	 */
+	public void sync() {
+		long required;
+		synchronized (this) {
+			required = writePosition;
+		}
+		synchronized (syncLock) {
+			if (syncedPosition >= required) {
+				return;
+			}
+			// also covers everything the callers waiting behind this one have written
+			long target;
+			List<MappedByteBuffer> full;
+			MappedByteBuffer active;
+			synchronized (this) {
+				target = writePosition;
+				full = new ArrayList<MappedByteBuffer>(unsynced);
+				active = current;
+			}
+			for (MappedByteBuffer segment : full) {
+				segment.force();
+			}
+			active.force();
+			synchronized (this) {
+				// segments are only added behind the forced ones in the meantime
+				unsynced.subList(0, full.size()).clear();
+			}
+			syncedPosition = target;
+		}
+	}
+
+	/**
+	 * Gives back the journaled orders of a client, oldest order first. Unlike the
+	 * {@link OrderStore} the journal keeps all orders ever sent.
+	 *
+	 * @param clientId
+	 * @param since    smallest sequence number that should be given back
+	 * @param limit    maximum number of orders that should be given back
+	 * @return List<StoredOrder> : journaled orders
+	 * @throws IOException if an older segment can not be read
+	 */
+	public List<StoredOrder> getOrders(int clientId, long since, int limit) throws IOException {
+		ClientIndex clientIndex = index.get(clientId);
+		if (clientIndex == null || limit <= 0) {
+			return Collections.emptyList();
+		}
+		long[] positions = clientIndex.find(since, limit);
+		List<StoredOrder> orders = new ArrayList<StoredOrder>(positions.length);
+		try (RecordReader reader = new RecordReader()) {
+			for (long position : positions) {
+				Record record = reader.read(position);
+				orders.add(new StoredOrder(record.sequence, record.content));
+			}
+		}
+		return orders;
+	}
+
+	/**
+	 * Restores the last orders of every journaled client into the given store.
+	 * Used at start up to rebuild the orders the server had before.
+	 *
+	 * @param store
+	 * @return int : number of restored orders
+	 * @throws IOException if an older segment can not be read
+	 */
+	public int recover(OrderStore store) throws IOException {
+		int restored = 0;
+		try (RecordReader reader = new RecordReader()) {
+			for (Integer clientId : index.keySet()) {
+				ClientIndex clientIndex = index.get(clientId);
+				long[] positions;
+				synchronized (clientIndex) {
+					int first = Math.max(0, clientIndex.size - OrderStore.CAPACITY);
+					positions = Arrays.copyOfRange(clientIndex.positions, first, clientIndex.size);
+				}
+				for (long position : positions) {
+					Record record = reader.read(position);
+					store.restore(clientId, record.sequence, record.content);
+					restored++;
+				}
+			}
+		}
+		return restored;
+	}
+
+	/**
+	 * Registers the clients found in the journal again with their last key. Used
+	 * at start up, before any new client is registered.
+	 *
+	 * @param registry
+	 * @return List<Integer> : IDs of the restored clients
+	 * @throws IOException if an older segment can not be read
+	 */
+	public List<Integer> restoreClients(ClientRegistry registry) throws IOException {
+		Map<Integer, byte[]> publicKeys = new LinkedHashMap<Integer, byte[]>();
+		try (RecordReader reader = new RecordReader()) {
+			for (long position : keyRecords) {
+				Record record = reader.read(position);
+				if (record.sequence == CLIENT_RECORD) {
+					publicKeys.put(record.clientId, record.content);
+				}
+			}
+		}
+		List<Integer> restored = new ArrayList<Integer>(publicKeys.size());
+		for (Map.Entry<Integer, byte[]> client : publicKeys.entrySet()) {
+			try {
+				registry.restore(client.getKey(), client.getValue());
+				restored.add(client.getKey());
+			} catch (SCCException e) {
+				e.printStackTrace();
+			}
+		}
+		return restored;
+	}
+
+	/**
+	 * Restores the data keys of the clients found in the journal. A key that was
+	 * wrapped again later, e.g. with a new master key, replaces the earlier one if
+	 * it can be unwrapped.
+	 *
+	 * @param keys
+	 * @return int : number of clients whose data key was restored
+	 * @throws IOException if an older segment can not be read
+	 */
+	public int restoreDataKeys(KeyManager keys) throws IOException {
+		Set<Integer> restored = new HashSet<Integer>();
+		try (RecordReader reader = new RecordReader()) {
+			for (long position : keyRecords) {
+				Record record = reader.read(position);
+				if (record.sequence != DATA_KEY_RECORD) {
+					continue;
+				}
+				ByteBuffer content = ByteBuffer.wrap(record.content);
+				byte[] wrapped = new byte[content.remaining() - 4];
+				WrappedKey wrappedKey = new WrappedKey(content.getInt(), wrapped);
+				content.get(wrapped);
+				if (keys.restoreDataKey(record.clientId, wrappedKey)) {
+					restored.add(record.clientId);
+				}
+			}
+		}
+		return restored.size();
+	}
+
+	/**
+	 * Reads records at given positions. Records of the segment that is written to
+	 * are read from its mapping, records of older segments from their file. The
+	 * file read last is kept open until the reader is closed, so records should be
+	 * read in the order of their positions.
+	 */
+	private class RecordReader implements AutoCloseable {
+		private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		private FileChannel channel;
+		private int openSegment = -1;
+
+		Record read(long position) throws IOException {
+			int segment = (int) (position / segmentSize);
+			int offset = (int) (position % segmentSize);
+			MappedByteBuffer mapped = null;
+			synchronized (OrderJournal.this) {
+				if (segment == currentSegment) {
+					mapped = current;
+				}
+			}
+			if (mapped != null) {
+				byte[] content = new byte[mapped.getInt(offset)];
+				mapped.get(offset + RECORD_HEADER_SIZE, content);
+				return new Record(mapped.getInt(offset + 4), mapped.getLong(offset + 8), content);
+			}
+
+			if (segment != openSegment) {
+				close();
+				channel = FileChannel.open(segmentFiles.get(segment), StandardOpenOption.READ);
+				openSegment = segment;
+			}
+			header.clear();
+			readFully(header, offset);
+			byte[] content = new byte[header.getInt(0)];
+			readFully(ByteBuffer.wrap(content), offset + RECORD_HEADER_SIZE);
+			return new Record(header.getInt(4), header.getLong(8), content);
+		}
+
+		private void readFully(ByteBuffer buffer, long offset) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) {
+					throw new EOFException("Journal segment " + openSegment + " ends within a record");
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+				openSegment = -1;
+			}
+		}
+	}
+
+	/**
+	 * Highest client ID that has orders or a registration in the journal
+	 *
+	 * @return int : client ID, -1 if the journal is empty
+	 */
+	public synchronized int getMaxClientId() {
+		return maxClientId;
+	}
+
+	/**
+	 * Number of bytes written to the journal
+	 *
+	 * @return long
+	 */
+	public synchronized long getWritePosition() {
+		return writePosition;
+	}
+
+	/**
+	 * Syncs all written orders and stops the background sync
+	 */
+	@Override
+	public void close() {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		sync();
+	}
+
+}
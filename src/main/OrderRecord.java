@@ -0,0 +1,299 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import main.Message.MessageType;
+
+/**
+ * Order of a client to buy or sell stock in a compact, typed form.
+ *
+ * Unlike a {@link Message}, whose fields are kept as strings in a map, a record
+ * consists of a few primitive fields only. Its binary encoding has a fixed size
+ * of {@link #ENCODED_SIZE} bytes: the message type, the 12 characters of the
+ * ISIN, the amount, the limit price and the sequence number of the order. This encoding is what
+ * the server encrypts and stores, and what clients sign if they send messages in
+ * the COMPACT format.
+ */
+public final class OrderRecord {
+
+	// number of characters of an ISIN
+	public static final int ISIN_LENGTH = 12;
+	// type, ISIN, amount, price and sequence number
+	public static final int ENCODED_SIZE = 1 + ISIN_LENGTH + 8 + 8 + 8;
+	// maximum number of orders that are signed together in one SubmitOrders message
+	public static final int MAX_BATCH_SIZE = 128;
+	// price of orders that are executed at any price
+	public static final long MARKET_PRICE = 0;
+
+	private static final String STOCK_ISIN = "stockISIN";
+	private static final String AMOUNT = "amount";
+	private static final String PRICE = "price";
+
+	private final MessageType type;
+	// ISIN as ASCII characters, the first 8 in "isinHigh" and the last 4 in "isinLow"
+	private final long isinHigh;
+	private final int isinLow;
+	private final long amount;
+	// limit price in the smallest unit of the currency, MARKET_PRICE for no limit
+	private final long price;
+	private final long sequence;
+
+	private OrderRecord(MessageType type, long isinHigh, int isinLow, long amount, long price, long sequence) {
+		this.type = type;
+		this.isinHigh = isinHigh;
+		this.isinLow = isinLow;
+		this.amount = amount;
+		this.price = price;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Creates an order without limit price
+	 *
+	 * @param type     BuyStock or SellStock
+	 * @param isin     ISIN of the stock, 12 ASCII characters
+	 * @param amount   number of shares
+	 * @param sequence sequence number of the order
+	 * @return OrderRecord
+	 */
+	public static OrderRecord of(MessageType type, String isin, long amount, long sequence) {
+		return of(type, isin, amount, MARKET_PRICE, sequence);
+	}
+
+	/**
+	 * Creates an order
+	 *
+	 * @param type     BuyStock or SellStock
+	 * @param isin     ISIN of the stock, 12 ASCII characters
+	 * @param amount   number of shares
+	 * @param price    limit price, MARKET_PRICE for no limit
+	 * @param sequence sequence number of the order
+	 * @return OrderRecord
+	 */
+	public static OrderRecord of(MessageType type, String isin, long amount, long price, long sequence) {
+		if (!isOrder(type)) {
+			throw new IllegalArgumentException(type + " is not an order");
+		}
+		if (isin == null || isin.length() != ISIN_LENGTH) {
+			throw new IllegalArgumentException("Invalid ISIN " + isin);
+		}
+		if (amount < 0 || price < 0) {
+			throw new IllegalArgumentException("Invalid amount " + amount + " or price " + price);
+		}
+		ByteBuffer chars = ByteBuffer.wrap(isin.getBytes(StandardCharsets.US_ASCII));
+		return new OrderRecord(type, chars.getLong(), chars.getInt(), amount, price, sequence);
+	}
+
+	/**
+	 * Creates the order contained in a BuyStock or SellStock message. Messages
+	 * without price are orders without limit.
+	 *
+	 * @param message
+	 * @param sequence sequence number of the order
+	 * @return OrderRecord
+	 * @throws IllegalArgumentException if the message does not contain a valid
+	 *                                  order
+	 */
+	public static OrderRecord fromMessage(Message message, long sequence) {
+		return of(message.getMessageType(), message.getMessageParameters().get(STOCK_ISIN),
+				Long.parseLong(message.getMessageParameters().get(AMOUNT)),
+				Long.parseLong(message.getMessageParameters().getOrDefault(PRICE, "0")), sequence);
+	}
+
+	/**
+	 * Shows if messages of the given type contain an order
+	 *
+	 * @param type
+	 * @return boolean
+	 */
+	public static boolean isOrder(MessageType type) {
+		return type == MessageType.BuyStock || type == MessageType.SellStock;
+	}
+
+	/**
+	 * Shows if the given bytes are an encoded order
+	 *
+	 * @param bytes
+	 * @return boolean
+	 */
+	public static boolean isRecord(byte[] bytes) {
+		return bytes.length == ENCODED_SIZE && bytes[0] >= 0 && bytes[0] < MessageType.values().length
+				&& isOrder(MessageType.values()[bytes[0]]);
+	}
+
+	/**
+	 * Reads an encoded order
+	 *
+	 * @param bytes
+	 * @return OrderRecord
+	 * @throws IllegalArgumentException if the bytes are no encoded order
+	 */
+	public static OrderRecord decode(byte[] bytes) {
+		if (!isRecord(bytes)) {
+			throw new IllegalArgumentException("Invalid order record");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		MessageType type = MessageType.values()[buffer.get()];
+		return new OrderRecord(type, buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getLong(),
+				buffer.getLong());
+	}
+
+	/**
+	 * Creates the orders contained in a SubmitOrders message. The orders get
+	 * consecutive sequence numbers.
+	 *
+	 * @param message
+	 * @param firstSequence sequence number of the first order
+	 * @return List<OrderRecord>
+	 * @throws IllegalArgumentException if the message does not contain valid
+	 *                                  orders
+	 */
+	public static List<OrderRecord> fromBatchMessage(Message message, long firstSequence) {
+		HashMap<String, String> parameters = message.getMessageParameters();
+		int count = Integer.parseInt(parameters.getOrDefault("count", "0"));
+		if (count <= 0 || count > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Invalid number of orders " + count);
+		}
+		List<OrderRecord> orders = new ArrayList<OrderRecord>(count);
+		for (int i = 0; i < count; i++) {
+			String suffix = "." + i;
+			String type = parameters.get("messageType" + suffix);
+			if (type == null) {
+				throw new IllegalArgumentException("Missing order " + i);
+			}
+			orders.add(of(MessageType.valueOf(type), parameters.get(STOCK_ISIN + suffix),
+					Long.parseLong(parameters.get(AMOUNT + suffix)),
+					Long.parseLong(parameters.getOrDefault(PRICE + suffix, "0")), firstSequence + i));
+		}
+		return orders;
+	}
+
+	/**
+	 * Creates a SubmitOrders message with the given orders
+	 *
+	 * @param orders
+	 * @return Message
+	 */
+	public static Message toBatchMessage(List<OrderRecord> orders) {
+		List<Message> messages = new ArrayList<Message>(orders.size());
+		for (OrderRecord order : orders) {
+			messages.add(order.toMessage());
+		}
+		return Message.submitOrdersMessage(messages);
+	}
+
+	/**
+	 * Shows if the given bytes are encoded orders of a SubmitOrders message
+	 *
+	 * @param bytes
+	 * @return boolean
+	 */
+	public static boolean isBatch(byte[] bytes) {
+		return bytes.length > 1 && bytes[0] == MessageType.SubmitOrders.ordinal()
+				&& (bytes.length - 1) % ENCODED_SIZE == 0 && (bytes.length - 1) / ENCODED_SIZE <= MAX_BATCH_SIZE;
+	}
+
+	/**
+	 * Binary encoding of several orders: the type SubmitOrders followed by the
+	 * encoding of every order
+	 *
+	 * @param orders
+	 * @return byte[]
+	 */
+	public static byte[] encodeBatch(List<OrderRecord> orders) {
+		ByteBuffer buffer = ByteBuffer.allocate(1 + orders.size() * ENCODED_SIZE);
+		buffer.put((byte) MessageType.SubmitOrders.ordinal());
+		for (OrderRecord order : orders) {
+			buffer.put(order.encode());
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Reads encoded orders of a SubmitOrders message
+	 *
+	 * @param bytes
+	 * @return List<OrderRecord>
+	 * @throws IllegalArgumentException if the bytes are no encoded orders
+	 */
+	public static List<OrderRecord> decodeBatch(byte[] bytes) {
+		if (!isBatch(bytes)) {
+			throw new IllegalArgumentException("Invalid order batch");
+		}
+		List<OrderRecord> orders = new ArrayList<OrderRecord>((bytes.length - 1) / ENCODED_SIZE);
+		for (int offset = 1; offset < bytes.length; offset += ENCODED_SIZE) {
+			orders.add(decode(Arrays.copyOfRange(bytes, offset, offset + ENCODED_SIZE)));
+		}
+		return orders;
+	}
+
+	/**
+	 * Binary encoding of the order
+	 *
+	 * @return byte[] : ENCODED_SIZE bytes
+	 */
+	public byte[] encode() {
+		return ByteBuffer.allocate(ENCODED_SIZE).put((byte) type.ordinal()).putLong(isinHigh).putInt(isinLow)
+				.putLong(amount).putLong(price).putLong(sequence).array();
+	}
+
+	/**
+	 * Copy of this order with another sequence number
+	 *
+	 * @param sequence
+	 * @return OrderRecord
+	 */
+	public OrderRecord withSequence(long sequence) {
+		return new OrderRecord(type, isinHigh, isinLow, amount, price, sequence);
+	}
+
+	/**
+	 * Converts the order into a message, e.g. to send it as JSON
+	 *
+	 * @return Message : BuyStock or SellStock message
+	 */
+	public Message toMessage() {
+		Message message = type == MessageType.BuyStock ? Message.buyStockMessage(getIsin(), String.valueOf(amount))
+				: Message.sellStockMessage(getIsin(), String.valueOf(amount));
+		if (price != MARKET_PRICE) {
+			message.getMessageParameters().put(PRICE, String.valueOf(price));
+		}
+		return message;
+	}
+
+	public MessageType getType() {
+		return type;
+	}
+
+	public String getIsin() {
+		byte[] chars = ByteBuffer.allocate(ISIN_LENGTH).putLong(isinHigh).putInt(isinLow).array();
+		return new String(chars, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Hash code of the ISIN, computed without creating the ISIN string
+	 *
+	 * @return int
+	 */
+	public int getIsinHash() {
+		return 31 * Long.hashCode(isinHigh) + isinLow;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+}
@@ -0,0 +1,47 @@
+package main;
+
+import java.util.List;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Entry points of a server that clients register at and send their signed
+ * messages to. Implemented by the {@link Server} and the {@link ShardedServer}.
+ */
+public interface OrderServer {
+
+	/**
+	 * Registers the key of a client
+	 *
+	 * @param key publicKey of client
+	 * @return int : client ID, -1 if key of client can not be used
+	 */
+	int registerClient(byte[] key);
+
+	/**
+	 * Registers the keys of several clients at once
+	 *
+	 * @param keys publicKeys of clients
+	 * @return int[] : client IDs in the order of the keys, -1 for keys that can
+	 *         not be used
+	 */
+	int[] registerClients(List<byte[]> keys);
+
+	/**
+	 * Processes a signed message in JSON format
+	 *
+	 * @param message signed message of a client
+	 * @return String : response of the server
+	 */
+	String acceptMessage(String message);
+
+	/**
+	 * Processes a signed message in the given format
+	 *
+	 * @param message signed message of a client
+	 * @param format  format of the message and the response
+	 * @return byte[] : response of the server
+	 */
+	byte[] acceptMessage(byte[] message, WireFormat format);
+
+}
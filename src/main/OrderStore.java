@@ -0,0 +1,383 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe storage of the encrypted orders of all clients.
+ *
+ * Each client has its own ring buffer that keeps the last {@link #CAPACITY}
+ * orders, older orders get overwritten. Access to the ring buffers is guarded
+ * by a fixed number of striped locks, so clients that are mapped to different
+ * stripes never block each other.
+ *
+ * Orders are either kept as arrays on the heap or, if the store is created with
+ * an {@link OrderArena}, copied into fixed-size slots in off-heap memory.
+ */
+public class OrderStore {
+
+	// maximum number of orders that are kept per client
+	public static final int CAPACITY = 100;
+
+	// number of locks the clients are spread over. Must be a power of two
+	private static final int STRIPES = 64;
+
+	// length field in front of every off-heap slot
+	static final int SLOT_HEADER_SIZE = 4;
+	// values of the length field of an off-heap slot that do not hold an order
+	private static final int EMPTY_SLOT = 0;
+	private static final int OVERFLOW_SLOT = -1;
+
+	/**
+	 * Encrypted order together with its sequence number. The sequence number
+	 * counts all orders a client has ever stored, starting with 0.
+	 */
+	public static class StoredOrder {
+		public final long sequence;
+		public final byte[] encryptedOrder;
+
+		StoredOrder(long sequence, byte[] encryptedOrder) {
+			this.sequence = sequence;
+			this.encryptedOrder = encryptedOrder;
+		}
+	}
+
+	/**
+	 * Gets an order right before it is added to a queue
+	 */
+	public interface AppendListener {
+
+		/**
+		 * @param clientId
+		 * @param sequence       sequence number the order will get
+		 * @param encryptedOrder
+		 * @throws IOException if the order must not be added
+		 */
+		void append(int clientId, long sequence, byte[] encryptedOrder) throws IOException;
+	}
+
+	/**
+	 * Ring buffer holding the orders of a single client
+	 */
+	private abstract static class Ring {
+		// number of orders ever added to this ring
+		long count;
+
+		abstract byte[] get(int slot);
+
+		abstract void set(int slot, byte[] order);
+	}
+
+	/**
+	 * Ring that keeps its orders as arrays on the heap
+	 */
+	private static class HeapRing extends Ring {
+		final byte[][] slots = new byte[CAPACITY][];
+
+		@Override
+		byte[] get(int slot) {
+			return slots[slot];
+		}
+
+		@Override
+		void set(int slot, byte[] order) {
+			slots[slot] = order;
+		}
+	}
+
+	/**
+	 * Ring that copies its orders into a block of the arena. Each slot starts with
+	 * the length of the order plus one, 0 for an empty slot and -1 for an order
+	 * that was too large for the slot and is kept on the heap.
+	 */
+	private static class OffHeapRing extends Ring {
+		final OrderArena arena;
+		final ByteBuffer block;
+		final int slotSize;
+		// orders that do not fit into a slot, created when needed
+		byte[][] overflow;
+
+		OffHeapRing(OrderArena arena) {
+			this.arena = arena;
+			this.block = arena.allocateBlock();
+			this.slotSize = arena.getSlotSize();
+		}
+
+		@Override
+		byte[] get(int slot) {
+			int offset = slot * slotSize;
+			int length = block.getInt(offset);
+			if (length == EMPTY_SLOT) {
+				return null;
+			}
+			if (length == OVERFLOW_SLOT) {
+				return overflow[slot];
+			}
+			byte[] order = new byte[length - 1];
+			block.get(offset + SLOT_HEADER_SIZE, order);
+			return order;
+		}
+
+		@Override
+		void set(int slot, byte[] order) {
+			int offset = slot * slotSize;
+			int old = block.getInt(offset);
+			if (old == OVERFLOW_SLOT) {
+				overflow[slot] = null;
+			}
+			if (old != EMPTY_SLOT) {
+				arena.addUsedBytes(-slotSize);
+			}
+			if (order == null) {
+				block.putInt(offset, EMPTY_SLOT);
+				return;
+			}
+			arena.addUsedBytes(slotSize);
+			if (order.length > slotSize - SLOT_HEADER_SIZE) {
+				if (overflow == null) {
+					overflow = new byte[CAPACITY][];
+				}
+				overflow[slot] = order;
+				block.putInt(offset, OVERFLOW_SLOT);
+				arena.countOverflow();
+				return;
+			}
+			block.put(offset + SLOT_HEADER_SIZE, order);
+			block.putInt(offset, order.length + 1);
+		}
+	}
+
+	// off-heap memory of the orders, null if orders are kept on the heap
+	private final OrderArena arena;
+	private final Object[] locks = new Object[STRIPES];
+	private final ConcurrentHashMap<Integer, Ring> rings = new ConcurrentHashMap<Integer, Ring>();
+	// number of orders currently stored for all clients
+	private final AtomicLong stored = new AtomicLong();
+
+	/**
+	 * Creates a store that keeps the orders on the heap
+	 */
+	public OrderStore() {
+		this(null);
+	}
+
+	/**
+	 * Creates a store that keeps the orders in off-heap memory
+	 *
+	 * @param arena memory the orders are copied into, null to keep them on the heap
+	 */
+	public OrderStore(OrderArena arena) {
+		this.arena = arena;
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	private Ring newRing() {
+		return arena == null ? new HeapRing() : new OffHeapRing(arena);
+	}
+
+	private Object lockFor(int clientId) {
+		int h = clientId * 0x9E3779B9;
+		return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Creates the queue of a client if it does not exist yet
+	 *
+	 * @param clientId
+	 */
+	public void createQueue(int clientId) {
+		rings.computeIfAbsent(clientId, id -> newRing());
+	}
+
+	/**
+	 * Adds an encrypted order to the queue of a client. If the queue is full the
+	 * oldest order gets overwritten.
+	 *
+	 * @param clientId
+	 * @param encryptedOrder
+	 * @return boolean : false if the client has no queue
+	 */
+	public boolean add(int clientId, byte[] encryptedOrder) {
+		return append(clientId, encryptedOrder) >= 0;
+	}
+
+	/**
+	 * Adds an encrypted order to the queue of a client. If the queue is full the
+	 * oldest order gets overwritten.
+	 *
+	 * @param clientId
+	 * @param encryptedOrder
+	 * @return long : sequence number of the added order, -1 if the client has no
+	 *         queue
+	 */
+	public long append(int clientId, byte[] encryptedOrder) {
+		Ring ring = rings.get(clientId);
+		if (ring == null || encryptedOrder == null) {
+			return -1;
+		}
+		synchronized (lockFor(clientId)) {
+			return insert(ring, encryptedOrder);
+		}
+	}
+
+	/**
+	 * Adds an encrypted order to the queue of a client after the listener got it
+	 * with its sequence number, e.g. to write it to the {@link OrderJournal}. If
+	 * the listener fails the queue stays unchanged, so no sequence number is used
+	 * and no older order is overwritten. The listener is called while the queues
+	 * of the clients of the same stripe are locked.
+	 *
+	 * @param clientId
+	 * @param encryptedOrder
+	 * @param listener       gets the order before it is added
+	 * @return long : sequence number of the added order, -1 if the client has no
+	 *         queue
+	 * @throws IOException if the listener failed, the order is not added then
+	 */
+	public long append(int clientId, byte[] encryptedOrder, AppendListener listener) throws IOException {
+		Ring ring = rings.get(clientId);
+		if (ring == null || encryptedOrder == null) {
+			return -1;
+		}
+		synchronized (lockFor(clientId)) {
+			listener.append(clientId, ring.count, encryptedOrder);
+			return insert(ring, encryptedOrder);
+		}
+	}
+
+	/**
+	 * Puts an order into the next slot of a ring. Has to be called while holding
+	 * the lock of the client.
+	 */
+	private long insert(Ring ring, byte[] encryptedOrder) {
+		if (ring.count < CAPACITY) {
+			stored.incrementAndGet();
+		}
+		ring.set((int) (ring.count % CAPACITY), encryptedOrder);
+		return ring.count++;
+	}
+
+	/**
+	 * Puts an order with a known sequence number back into the queue of a client,
+	 * e.g. when orders are recovered from the {@link OrderJournal}. The queue is
+	 * created if it does not exist yet. Orders that are older than the last
+	 * {@link #CAPACITY} orders of the client are ignored.
+	 *
+	 * @param clientId
+	 * @param sequence
+	 * @param encryptedOrder
+	 */
+	public void restore(int clientId, long sequence, byte[] encryptedOrder) {
+		Ring ring = rings.computeIfAbsent(clientId, id -> newRing());
+		synchronized (lockFor(clientId)) {
+			if (sequence >= ring.count) {
+				long before = Math.min(ring.count, CAPACITY);
+				// slots between the old and the new end do not hold valid orders anymore
+				for (long seq = Math.max(ring.count, sequence + 1 - CAPACITY); seq < sequence; seq++) {
+					ring.set((int) (seq % CAPACITY), null);
+				}
+				ring.count = sequence + 1;
+				stored.addAndGet(Math.min(ring.count, CAPACITY) - before);
+			} else if (sequence < ring.count - CAPACITY) {
+				return;
+			}
+			ring.set((int) (sequence % CAPACITY), encryptedOrder);
+		}
+	}
+
+	/**
+	 * Gives back all currently stored orders of a client, oldest order first
+	 *
+	 * @param clientId
+	 * @return List<byte[]> : copy of stored orders, empty if the client has no
+	 *         queue
+	 */
+	public List<byte[]> getOrders(int clientId) {
+		Ring ring = rings.get(clientId);
+		if (ring == null) {
+			return Collections.emptyList();
+		}
+		synchronized (lockFor(clientId)) {
+			int size = (int) Math.min(ring.count, CAPACITY);
+			List<byte[]> orders = new ArrayList<byte[]>(size);
+			for (long seq = ring.count - size; seq < ring.count; seq++) {
+				byte[] order = ring.get((int) (seq % CAPACITY));
+				// slots can be empty after a recovery with missing orders
+				if (order != null) {
+					orders.add(order);
+				}
+			}
+			return orders;
+		}
+	}
+
+	/**
+	 * Gives back a page of the currently stored orders of a client, oldest order
+	 * first
+	 *
+	 * @param clientId
+	 * @param since    smallest sequence number that should be given back
+	 * @param limit    maximum number of orders that should be given back
+	 * @return List<StoredOrder> : stored orders, empty if the client has no queue
+	 */
+	public List<StoredOrder> getOrders(int clientId, long since, int limit) {
+		Ring ring = rings.get(clientId);
+		if (ring == null || limit <= 0) {
+			return Collections.emptyList();
+		}
+		synchronized (lockFor(clientId)) {
+			long first = Math.max(since, ring.count - Math.min(ring.count, CAPACITY));
+			long end = Math.min(ring.count, first + limit);
+			List<StoredOrder> orders = new ArrayList<StoredOrder>((int) Math.max(0, end - first));
+			for (long seq = first; seq < end; seq++) {
+				byte[] order = ring.get((int) (seq % CAPACITY));
+				if (order != null) {
+					orders.add(new StoredOrder(seq, order));
+				}
+			}
+			return orders;
+		}
+	}
+
+	/**
+	 * Number of currently stored orders of a client
+	 *
+	 * @param clientId
+	 * @return int
+	 */
+	public int size(int clientId) {
+		Ring ring = rings.get(clientId);
+		if (ring == null) {
+			return 0;
+		}
+		synchronized (lockFor(clientId)) {
+			return (int) Math.min(ring.count, CAPACITY);
+		}
+	}
+
+	/**
+	 * Getter for the off-heap memory of the orders
+	 *
+	 * @return OrderArena : arena, null if orders are kept on the heap
+	 */
+	public OrderArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Number of currently stored orders of all clients
+	 *
+	 * @return long
+	 */
+	public long totalSize() {
+		return stored.get();
+	}
+
+}
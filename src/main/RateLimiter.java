@@ -0,0 +1,78 @@
+package main;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of messages per second of each client with a token bucket.
+ *
+ * The bucket of a client is kept in a single number: the time at which the
+ * bucket would be completely full again. Taking a token moves this time one
+ * interval into the future, which is done with compare-and-set, so checking the
+ * limit never locks. A client can send up to "burst" messages at once and
+ * "ratePerSecond" messages per second on average.
+ */
+public class RateLimiter {
+
+	// time between two tokens
+	private final long intervalNanos;
+	// time it takes to fill an empty bucket
+	private final long burstNanos;
+	private final ConcurrentHashMap<Integer, AtomicLong> buckets = new ConcurrentHashMap<Integer, AtomicLong>();
+
+	/**
+	 * Constructor of rate limiter
+	 *
+	 * @param ratePerSecond average number of allowed messages per second of a
+	 *                      client
+	 * @param burst         number of messages a client can send at once
+	 */
+	public RateLimiter(double ratePerSecond, int burst) {
+		this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+		this.burstNanos = intervalNanos * burst;
+	}
+
+	/**
+	 * Takes a token from the bucket of a client
+	 *
+	 * @param clientId
+	 * @return boolean : false if the client has exceeded its limit
+	 */
+	public boolean tryAcquire(int clientId) {
+		return tryAcquire(clientId, 1);
+	}
+
+	/**
+	 * Takes several tokens at once from the bucket of a client, e.g. for a message
+	 * with several orders
+	 *
+	 * @param clientId
+	 * @param permits  number of tokens
+	 * @return boolean : false if the client has exceeded its limit, no tokens
+	 *         are taken then
+	 */
+	public boolean tryAcquire(int clientId, int permits) {
+		if (permits <= 0) {
+			return true;
+		}
+		AtomicLong full = buckets.get(clientId);
+		if (full == null) {
+			full = buckets.computeIfAbsent(clientId, id -> new AtomicLong(Long.MIN_VALUE));
+		}
+		long now = System.nanoTime();
+		while (true) {
+			long current = full.get();
+			// a bucket that is full since longer does not get more tokens
+			long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+			long next = start + intervalNanos * permits;
+			if (next - now > burstNanos) {
+				return false;
+			}
+			if (full.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package main;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects signed messages that are sent again (replayed).
+ *
+ * Every signed message carries a sequence number that the client increases with
+ * each message, and the time it was created. For each client the filter keeps
+ * the highest sequence number seen so far and a bitmap of the last
+ * {@link #WINDOW} sequence numbers. A message is only fresh if its sequence
+ * number was not seen yet, is not older than the window, and its timestamp is
+ * not further away from the time of the server than the allowed skew. So the
+ * memory needed is fixed per client, independent of the number of messages.
+ *
+ * Checking is split in two steps: {@link #isFresh} is cheap and rejects replays
+ * before the signature is validated, {@link #markSeen} is called only for
+ * messages with a valid signature, so forged messages can not use up sequence
+ * numbers of a client.
+ */
+public class ReplayFilter {
+
+	// number of sequence numbers below the highest one that are remembered
+	public static final int WINDOW = 1024;
+	// default difference allowed between timestamp of message and time of server
+	public static final long DEFAULT_MAX_SKEW_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 * Sequence numbers seen of one client
+	 */
+	private static class Window {
+		long highest;
+		// bit of sequence number s is s % WINDOW
+		final long[] seen = new long[WINDOW / 64];
+
+		boolean contains(long sequence) {
+			if (sequence > highest) {
+				return false;
+			}
+			if (sequence <= highest - WINDOW) {
+				return true;
+			}
+			int bit = (int) (sequence % WINDOW);
+			return (seen[bit >>> 6] & (1L << bit)) != 0;
+		}
+
+		void add(long sequence) {
+			if (sequence > highest) {
+				// sequence numbers between the old and the new highest are not seen yet
+				long clear = Math.min(sequence - highest, WINDOW);
+				for (long s = sequence - clear + 1; s <= sequence; s++) {
+					int bit = (int) (s % WINDOW);
+					seen[bit >>> 6] &= ~(1L << bit);
+				}
+				highest = sequence;
+			}
+			int bit = (int) (sequence % WINDOW);
+			seen[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	private final long maxSkewMillis;
+	private final ConcurrentHashMap<Integer, Window> windows = new ConcurrentHashMap<Integer, Window>();
+
+	public ReplayFilter() {
+		this(DEFAULT_MAX_SKEW_MILLIS);
+	}
+
+	/**
+	 * Constructor of filter
+	 *
+	 * @param maxSkewMillis maximum difference between the timestamp of a message
+	 *                      and the time of the server
+	 */
+	public ReplayFilter(long maxSkewMillis) {
+		this.maxSkewMillis = maxSkewMillis;
+	}
+
+	/**
+	 * Checks whether a message can be new, without remembering it
+	 *
+	 * @param clientId
+	 * @param sequence  sequence number of the message, starting with 1
+	 * @param timestamp creation time of the message in milliseconds
+	 * @return boolean : false if the message is a replay or too old
+	 */
+	public boolean isFresh(int clientId, long sequence, long timestamp) {
+		if (sequence <= 0 || Math.abs(System.currentTimeMillis() - timestamp) > maxSkewMillis) {
+			return false;
+		}
+		Window window = windows.get(clientId);
+		if (window == null) {
+			return true;
+		}
+		synchronized (window) {
+			return !window.contains(sequence);
+		}
+	}
+
+	/**
+	 * Remembers the sequence number of a message with valid signature
+	 *
+	 * @param clientId
+	 * @param sequence
+	 * @return boolean : false if the sequence number was already seen, e.g. by
+	 *         another copy of the message processed at the same time
+	 */
+	public boolean markSeen(int clientId, long sequence) {
+		if (sequence <= 0) {
+			return false;
+		}
+		Window window = windows.computeIfAbsent(clientId, id -> new Window());
+		synchronized (window) {
+			if (window.contains(sequence)) {
+				return false;
+			}
+			window.add(sequence);
+			return true;
+		}
+	}
+
+}
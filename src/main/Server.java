@@ -1,28 +1,38 @@
 package main;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
-import org.apache.commons.collections4.map.HashedMap;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.securecryptoconfig.PlaintextContainer;
 import org.securecryptoconfig.SCCCiphertext;
 import org.securecryptoconfig.SCCException;
 import org.securecryptoconfig.SCCKey;
-import org.securecryptoconfig.SCCKey.KeyType;
 import org.securecryptoconfig.SCCKey.KeyUseCase;
 import org.securecryptoconfig.SecureCryptoConfig;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import COSE.CoseException;
 import main.Message.MessageType;
+import main.MessageCodec.WireFormat;
+import main.OrderStore.StoredOrder;
+import main.ServerMetrics.Rejection;
+import main.ServerMetrics.Stage;
 
 /**
  * Class that simulates the behavior of a stock-server that processes client
@@ -35,38 +45,370 @@ import main.Message.MessageType;
  * incoming orders will be stored encrypted such that no unauthorized party can
  * see unencrypted order.
  */
-public class Server extends Thread {
+public class Server extends Thread implements OrderServer {
+
+	private static org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager
+			.getLogger(Server.class);
+
+	// every n-th message is logged
+	private static final int LOG_SAMPLE_RATE = 1000;
+
+	// limits of incoming messages, larger messages are rejected before being read in
+	static final int MAX_MESSAGE_SIZE = 64 * 1024;
+	private static final int MAX_CONTENT_SIZE = 16 * 1024;
+	private static final int MAX_SIGNATURE_SIZE = 1024;
+	// default limit of messages per client
+	public static final double DEFAULT_RATE_LIMIT = 1000;
+	public static final int DEFAULT_RATE_BURST = 2000;
+
 	// Queue to store orders of a client with a specific ID
-	HashedMap<Integer, CircularFifoQueue<byte[]>> queues = new HashedMap<Integer, CircularFifoQueue<byte[]>>();
+	final OrderStore queues;
+	// Metrics of message processing
+	final ServerMetrics metrics;
+	// Already decrypted orders. Only used if enabled with "enableOrderCache"
+	volatile OrderCache orderCache;
+	// Persistent copy of all stored orders. Only used if enabled with "enableJournal"
+	volatile OrderJournal journal;
+	// Queues of orders that are stored asynchronously. Only used if enabled with
+	// "enableIngestion"
+	volatile OrderIngestion ingestion;
+	// Order books the accepted orders are matched in. Only used if enabled with
+	// "enableMatching"
+	volatile MatchingEngine matching;
 	// maximum timeout of server used in "run" Method
 	private static int sendFrequency = 5000;
 
 	// Key for encrypt orders before storing. Gets initialized with the first run of
 	// AppMain.java
 	static byte[] masterKey;
+	// data keys of the clients, wrapped with the masterKey
+	final KeyManager keys;
+	// file the masterKey is kept in. Only used if enabled with "enableJournal"
+	private volatile Path masterKeyFile;
+	// sequence numbers of already processed messages
+	final ReplayFilter replayFilter = new ReplayFilter();
+	// limit of messages per client, null for no limit
+	private volatile RateLimiter rateLimiter = new RateLimiter(DEFAULT_RATE_LIMIT, DEFAULT_RATE_BURST);
+
+	// threads used for validating batches of incoming messages in parallel
+	private final ForkJoinPool verificationPool;
 
 	// all registered clients with their Keys
-	List<byte[]> clients = Collections.synchronizedList(new ArrayList<byte[]>());
+	final ClientRegistry clients;
+
+	/**
+	 * Creates a server that keeps the stored orders on the heap
+	 */
+	public Server() {
+		this(new OrderStore());
+	}
+
+	/**
+	 * Creates a server that keeps the stored orders in the given store, e.g. one
+	 * with an {@link OrderArena} to keep them off-heap
+	 * 
+	 * @param queues store for the encrypted orders
+	 */
+	public Server(OrderStore queues) {
+		this(queues, new ClientRegistry());
+	}
+
+	/**
+	 * Creates a server with the given store and client registry, e.g. a shard of a
+	 * {@link ShardedServer}
+	 * 
+	 * @param queues  store for the encrypted orders
+	 * @param clients registry that hands out the client IDs
+	 */
+	public Server(OrderStore queues, ClientRegistry clients) {
+		this(queues, clients, new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Creates a server with the given store and client registry that validates
+	 * batches of messages in the given pool, e.g. one shared by all shards of a
+	 * {@link ShardedServer}
+	 * 
+	 * @param queues           store for the encrypted orders
+	 * @param clients          registry that hands out the client IDs
+	 * @param verificationPool threads that validate batches of messages
+	 */
+	public Server(OrderStore queues, ClientRegistry clients, ForkJoinPool verificationPool) {
+		this.queues = queues;
+		this.clients = clients;
+		this.metrics = new ServerMetrics(queues);
+		this.keys = new KeyManager(masterKey);
+		this.verificationPool = verificationPool;
+	}
 
 	/**
 	 * Server retrieves key for later signature validation from client
 	 * 
 	 * @param key publicKey of client
-	 * @return int : client ID
+	 * @return int : client ID, -1 if key of client can not be used
 	 */
-	public synchronized int registerClient(byte[] key) {
+	@Override
+	public int registerClient(byte[] key) {
+		int id = addClient(key);
+		syncKeys();
+		return id;
+	}
 
-		if (clients.indexOf(key) == -1) {
-			clients.add(key);
+	/**
+	 * Waits until the registrations and keys of clients are on disk, if the journal
+	 * is enabled
+	 */
+	private void syncKeys() {
+		OrderJournal orderJournal = journal;
+		if (orderJournal != null) {
+			orderJournal.sync();
 		}
+	}
 
-		int id = clients.indexOf(key);
+	/**
+	 * Registers a client without waiting for the journal
+	 */
+	private int addClient(byte[] key) {
+
+		int id;
+		try {
+			id = clients.register(key);
+		} catch (SCCException e) {
+			e.printStackTrace();
+			return -1;
+		}
 
 		// new Queue of the client to store his later incoming orders
-		queues.put(id, new CircularFifoQueue<byte[]>(100));
+		queues.createQueue(id);
 		return id;
 	}
 
+	/**
+	 * Registers the keys of several clients at once
+	 * 
+	 * @param keys publicKeys of clients
+	 * @return int[] : client IDs in the order of the keys, -1 for keys that can not
+	 *         be used
+	 */
+	@Override
+	public int[] registerClients(List<byte[]> keys) {
+		int[] ids = new int[keys.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = addClient(keys.get(i));
+		}
+		// one sync covers all registrations
+		syncKeys();
+		return ids;
+	}
+
+	/**
+	 * Replaces the key of an already registered client. All following messages of
+	 * the client are validated with the new key.
+	 * 
+	 * @param clientID
+	 * @param key      new publicKey of client
+	 * @return boolean : shows if key could be replaced
+	 */
+	public boolean replaceClientKey(int clientID, byte[] key) {
+		try {
+			boolean replaced = clients.replace(clientID, key);
+			syncKeys();
+			return replaced;
+		} catch (SCCException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Getter for the already decoded key of a client
+	 * 
+	 * @param clientID
+	 * @return VerificationKey : key of client, null if client is unknown
+	 */
+	VerificationKey getVerificationKey(int clientID) {
+		return clients.getVerificationKey(clientID);
+	}
+
+	/**
+	 * Enables caching of decrypted orders, such that orders requested repeatedly
+	 * with GetOrders do not have to be decrypted again.
+	 * 
+	 * @param maxEntries maximum number of cached orders
+	 * @param maxBytes   maximum memory used by cached orders
+	 * @param ttlMillis  time after which cached orders are dropped, 0 for no limit
+	 */
+	public void enableOrderCache(int maxEntries, long maxBytes, long ttlMillis) {
+		orderCache = new OrderCache(maxEntries, maxBytes, ttlMillis);
+	}
+
+	/**
+	 * Enables the persistent journal of encrypted orders with default settings. The
+	 * master key is kept in the directory of the journal.
+	 * 
+	 * @param directory directory of the journal files
+	 * @return int : number of restored orders
+	 * @throws IOException if the journal can not be opened
+	 */
+	public int enableJournal(Path directory) throws IOException {
+		return enableJournal(directory, directory.resolve(KeyManager.MASTER_KEY_FILE));
+	}
+
+	/**
+	 * Enables the persistent journal of encrypted orders with default settings
+	 * 
+	 * @param directory     directory of the journal files
+	 * @param masterKeyFile file the master keys are read from or written to
+	 * @return int : number of restored orders
+	 * @throws IOException if the journal or the key file can not be opened
+	 */
+	public int enableJournal(Path directory, Path masterKeyFile) throws IOException {
+		return enableJournal(directory, masterKeyFile, OrderJournal.DEFAULT_SEGMENT_SIZE,
+				OrderJournal.DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Enables the persistent journal of encrypted orders and restores the state of
+	 * the server from it. Has to be called before clients are registered.
+	 * 
+	 * The clients found in the journal are registered again with their IDs, their
+	 * data keys are unwrapped with the master keys and their last orders are
+	 * restored into their queues. If the key file exists the master keys are read
+	 * from it, otherwise the current master key is written to it. The key file
+	 * should be kept apart from the journal in production, as it is not encrypted.
+	 * 
+	 * @param directory          directory of the journal files
+	 * @param masterKeyFile      file the master keys are read from or written to
+	 * @param segmentSize        size of a single journal file in bytes
+	 * @param syncIntervalMillis interval in which orders are written to disk in the
+	 *                           background, confirmed orders are always written
+	 *                           before the response
+	 * @return int : number of restored orders
+	 * @throws IOException if the journal or the key file can not be opened
+	 */
+	public int enableJournal(Path directory, Path masterKeyFile, int segmentSize, long syncIntervalMillis)
+			throws IOException {
+		OrderJournal opened = OrderJournal.open(directory, segmentSize, syncIntervalMillis);
+		if (Files.exists(masterKeyFile)) {
+			List<KeyManager.MasterKey> stored = KeyManager.readMasterKeys(masterKeyFile);
+			keys.restoreMasterKeys(stored);
+			masterKey = stored.get(stored.size() - 1).key;
+		} else {
+			KeyManager.writeMasterKeys(masterKeyFile, keys.getMasterKeys());
+		}
+		this.masterKeyFile = masterKeyFile;
+
+		List<Integer> restoredClients = opened.restoreClients(clients);
+		for (int clientId : restoredClients) {
+			queues.createQueue(clientId);
+		}
+		int restoredKeys = opened.restoreDataKeys(keys);
+		int restored = opened.recover(queues);
+		clients.reserveIds(opened.getMaxClientId());
+		// clients registered from now on are kept in the journal
+		clients.setListener((clientId, publicKey) -> {
+			try {
+				opened.appendClient(clientId, publicKey);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		// data keys are kept in the journal before the first order that uses them
+		keys.setListener((clientId, wrappedKey) -> {
+			try {
+				opened.appendDataKey(clientId, wrappedKey);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		journal = opened;
+		logger.info("Restored " + restoredClients.size() + " clients, " + restoredKeys + " data keys and " + restored
+				+ " orders from journal " + directory);
+		return restored;
+	}
+
+	/**
+	 * Lets orders be encrypted and stored by worker threads. Clients get their
+	 * response as soon as the order is queued, so orders may show up in GetOrders
+	 * a little later.
+	 * 
+	 * @param shards    number of queues and worker threads
+	 * @param capacity  maximum number of waiting orders per queue
+	 * @param batchSize maximum number of orders a worker takes from its queue at
+	 *                  once
+	 * @param policy    behavior if a queue is full
+	 */
+	public void enableIngestion(int shards, int capacity, int batchSize, OrderIngestion.OverflowPolicy policy) {
+		ingestion = new OrderIngestion(this, shards, capacity, batchSize, policy);
+		metrics.setIngestion(ingestion);
+	}
+
+	/**
+	 * Lets accepted orders be matched in an order book per stock. Trades are sent
+	 * to the clients with their next GetOrders request.
+	 * 
+	 * @param threads number of threads the order books are split across
+	 */
+	public void enableMatching(int threads) {
+		setMatchingEngine(new MatchingEngine(threads));
+	}
+
+	/**
+	 * Lets accepted orders be matched by the given engine, e.g. one that is shared
+	 * by the shards of a {@link ShardedServer}
+	 * 
+	 * @param engine
+	 */
+	public void setMatchingEngine(MatchingEngine engine) {
+		matching = engine;
+		metrics.setMatching(engine);
+	}
+
+	/**
+	 * Sets the number of messages a client may send before they are rejected
+	 * 
+	 * @param ratePerSecond average number of messages per second, 0 for no limit
+	 * @param burst         number of messages a client can send at once
+	 */
+	public void setRateLimit(double ratePerSecond, int burst) {
+		rateLimiter = ratePerSecond > 0 ? new RateLimiter(ratePerSecond, burst) : null;
+	}
+
+	/**
+	 * Replaces the master key without stopping the server. Only the data keys of
+	 * the clients are wrapped again, stored orders are not encrypted again.
+	 * 
+	 * If some data keys can not be wrapped again, the earlier master keys they are
+	 * wrapped with are kept, also in the key file, and the new master key is used
+	 * for all other data keys. The rotation can then be repeated later.
+	 * 
+	 * @param newMasterKey
+	 * @return int : version of the new master key, -1 if not all data keys could
+	 *         be wrapped again
+	 */
+	public int rotateMasterKey(byte[] newMasterKey) {
+		int version;
+		try {
+			version = keys.rotateMasterKey(newMasterKey);
+		} catch (IllegalStateException e) {
+			e.printStackTrace();
+			version = -1;
+		}
+		masterKey = newMasterKey;
+		Path file = masterKeyFile;
+		if (file != null) {
+			// the data keys wrapped with the new master key have to be on disk before
+			// master keys they do not need anymore are removed from the key file
+			syncKeys();
+			try {
+				KeyManager.writeMasterKeys(file, keys.getMasterKeys());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return version;
+	}
+
 	/**
 	 * Method to check signature validation of a incoming message.
 	 * 
@@ -76,10 +418,22 @@ public class Server extends Thread {
 	 * @return boolean resultValidation: shows if signature was valid
 	 * @throws CoseException
 	 */
-	private boolean checkSignature(int clientID, byte[] order, byte[] signature) throws CoseException {
-		byte[] publicKey = clients.get(clientID);
+	boolean checkSignature(int clientID, byte[] order, byte[] signature) throws CoseException {
 		// Key of client. This key is used for signature validation
-		SCCKey key = new SCCKey(KeyType.Asymmetric, publicKey, null, "EC");
+		return checkSignature(getVerificationKey(clientID), order, signature);
+	}
+
+	/**
+	 * Method to check signature validation of a incoming message with an already
+	 * looked up key of the client.
+	 * 
+	 * @param key       key of the client that sent the message
+	 * @param order
+	 * @param signature
+	 * @return boolean resultValidation: shows if signature was valid
+	 * @throws CoseException
+	 */
+	boolean checkSignature(SCCKey key, byte[] order, byte[] signature) throws CoseException {
 		// store result of the validation. Default : false
 		boolean resultValidation = false;
 
@@ -100,10 +454,10 @@ public class Server extends Thread {
 	 * @return boolean : shows if encryption could be done successfully
 	 * @throws CoseException
 	 */
-	private boolean saveOrderEncrypted(byte[] order, int clientId) throws CoseException {
+	boolean saveOrderEncrypted(byte[] order, int clientId) throws CoseException {
 
 		byte[] encryptedOrder = null;
-		SCCKey key = new SCCKey(KeyType.Symmetric, masterKey, "AES");
+		SCCKey key = keys.getDataKey(clientId);
 
 		// TODO Perform a symmetric encryption of the given "order" with the already
 		// defined "key". Store the chiphertext in the already defined variable
@@ -111,24 +465,61 @@ public class Server extends Thread {
 
 		
 		// Add encrypted order in queue of client
-		return queues.get(clientId).add(encryptedOrder);
+		long sequence;
+		OrderJournal orderJournal = journal;
+		if (orderJournal == null) {
+			sequence = queues.append(clientId, encryptedOrder);
+		} else {
+			// the order only takes its place in the queue once it is in the journal
+			try {
+				sequence = queues.append(clientId, encryptedOrder, orderJournal::append);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		if (sequence < 0) {
+			return false;
+		}
+		// order that was stored before in the same slot is not valid anymore
+		if (orderCache != null) {
+			orderCache.invalidate(clientId, sequence);
+		}
+		return true;
 		
 	}
 
+	/**
+	 * Converts a decrypted order into the JSON form it is sent back to the client
+	 * in
+	 * 
+	 * @param plaintext decrypted order
+	 * @return String : order as JSON message
+	 * @throws JsonProcessingException
+	 */
+	private static String renderOrder(byte[] plaintext) throws JsonProcessingException {
+		if (OrderRecord.isRecord(plaintext)) {
+			return MessageCodec.writeMessage(OrderRecord.decode(plaintext).toMessage());
+		}
+		// orders stored before they were kept as records are JSON messages
+		return new String(plaintext, StandardCharsets.UTF_8);
+	}
+
 	/**
 	 * Method for decrypting stored encrypted order if clients requests his already
 	 * send orders
 	 * 
+	 * @param clientId       client the order belongs to
 	 * @param encryptedOrder encrypted order
-	 * @return String : plaintext of decryptet order
+	 * @return byte[] : plaintext of decryptet order
 	 * @throws CoseException
 	 */
-	private String decryptOrder(byte[] encryptedOrder) throws CoseException {
-		SCCKey key = new SCCKey(KeyType.Symmetric, masterKey, "AES");
-		String decryptedOrder = null;
+	byte[] decryptOrder(int clientId, byte[] encryptedOrder) throws CoseException {
+		SCCKey key = keys.getDataKey(clientId);
+		byte[] decryptedOrder = null;
 		
 		// TODO Perform a symmetric decryption of the given "encryptedOrder" with the already
-		// defined "key". Store/Return the plaintext in the already defined String variable
+		// defined "key". Store/Return the plaintext in the already defined byte[] variable
 		// "decryptedOrder"
 		
 		return null;
@@ -150,39 +541,192 @@ public class Server extends Thread {
 
 	/**
 	 * Message get processed depending on its MessageType and validation result.
+	 * The response is written to the given stream.
 	 * @param type BUY/SELL stock or GETORDERS
 	 * @param clientId
 	 * @param isCorrectMessage shows if message signature was correct
-	 * @param signedMessage message sent from the client to server
-	 * @return
+	 * @param order order contained in the message, null if it is no BuyStock or SellStock message
+	 * @param batch orders contained in the message, null if it is no SubmitOrders message
+	 * @param theMessage content of the signed message, null if the order was sent as record
+	 * @param format format of the response
+	 * @param out stream the response is written to
 	 * @throws CoseException
-	 * @throws JsonProcessingException
+	 * @throws IOException
 	 */
-	private  String parseMessage(MessageType type, int clientId, boolean isCorrectMessage, SignedMessage signedMessage ) throws CoseException, JsonProcessingException
+	private void parseMessage(MessageType type, int clientId, boolean isCorrectMessage, OrderRecord order,
+			List<OrderRecord> batch, Message theMessage, WireFormat format, OutputStream out)
+			throws CoseException, IOException
 	{
 		switch (type) {
 		case GetOrders:
-			CircularFifoQueue<byte[]> q = queues.get(clientId);
-			String answer = "";
-			for (int i = 0; i < q.size(); i++) {
-				byte[] encryptedOrder = q.get(i);
-				String decrypted = "";
-				decrypted = decryptOrder(encryptedOrder);
-				answer = answer + Message.createServerSendOrdersMessage(decrypted) + "\n";
-			}
-			return answer;
+			HashMap<String, String> parameters = theMessage.getMessageParameters();
+			long since = Long.parseLong(parameters.getOrDefault("since", "0"));
+			int limit = Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(OrderStore.CAPACITY)));
+			streamOrders(clientId, since, limit, format, out);
+			streamTrades(clientId, format, out);
+			return;
 		case BuyStock:
 		case SellStock:
-			boolean encryptionResult = saveOrderEncrypted(signedMessage.getContent().getBytes(), clientId);
-			if (encryptionResult == true) {
-				return Message.createServerResponseMessage(isCorrectMessage);
+			if (storeOrder(clientId, order)) {
+				syncJournal();
+				out.write(buildResponse(Message.serverResponseMessage(isCorrectMessage), format));
 			} else {
-				return new String("{\"Failure during encryption\"}");
+				out.write(failure(ingestion != null ? "Server busy" : "Failure during encryption", format));
+			}
+			return;
+		case SubmitOrders:
+			// orders of a batch are stored one by one, the response tells how many were accepted
+			int accepted = 0;
+			for (OrderRecord batchOrder : batch) {
+				if (storeOrder(clientId, batchOrder)) {
+					accepted++;
+				}
+			}
+			if (accepted < batch.size()) {
+				metrics.countFailure();
 			}
+			// one sync covers all orders of the batch
+			syncJournal();
+			out.write(buildResponse(Message.serverResponseMessage(accepted == batch.size(), accepted), format));
+			return;
 		default:
-			return new String("{\"Failure\"}");
+			out.write(failure("Failure", format));
+		}
+	}
+
+	/**
+	 * Stores an accepted order encrypted and lets it be matched. If ingestion is
+	 * enabled the order is only queued, it is matched after a worker stored it.
+	 * 
+	 * @param clientId
+	 * @param order
+	 * @return boolean : false if the order could not be stored or queued
+	 * @throws CoseException
+	 */
+	private boolean storeOrder(int clientId, OrderRecord order) throws CoseException {
+		OrderIngestion orderIngestion = ingestion;
+		if (orderIngestion != null) {
+			return orderIngestion.submit(clientId, order);
+		}
+		long start = System.nanoTime();
+		// orders are always stored as records, independent of the format they were sent in
+		boolean stored = saveOrderEncrypted(order.encode(), clientId);
+		metrics.record(Stage.Encrypt, start);
+		if (stored) {
+			match(clientId, order);
+		}
+		return stored;
+	}
+
+	/**
+	 * Waits until the stored orders are on disk, if the journal is enabled, such
+	 * that a confirmed order is not lost by a crash. Orders of concurrent requests
+	 * are synced together. With ingestion the orders are not stored yet when the
+	 * response is sent, so there is nothing to wait for.
+	 */
+	void syncJournal() {
+		OrderJournal orderJournal = journal;
+		if (orderJournal != null && ingestion == null) {
+			orderJournal.sync();
+		}
+	}
+
+	/**
+	 * Gives the orders of a SubmitOrders message their sequence numbers. A client
+	 * sending n orders at once uses up n sequence numbers, the signed message
+	 * carries the last of them.
+	 * 
+	 * @param batch
+	 * @param lastSequence sequence number of the signed message
+	 * @return List<OrderRecord> : orders with the sequence numbers lastSequence -
+	 *         n + 1 to lastSequence
+	 */
+	private static List<OrderRecord> numberBatch(List<OrderRecord> batch, long lastSequence) {
+		long first = lastSequence - batch.size() + 1;
+		if (first <= 0) {
+			throw new IllegalArgumentException("Sequence number " + lastSequence + " too small for batch");
+		}
+		List<OrderRecord> numbered = new ArrayList<OrderRecord>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			numbered.add(batch.get(i).withSequence(first + i));
+		}
+		return numbered;
+	}
+
+	/**
+	 * Hands an accepted order over to the order book of its stock, if matching is
+	 * enabled. Orders that are not matched are counted by the engine.
+	 * 
+	 * @param clientId
+	 * @param order
+	 */
+	void match(int clientId, OrderRecord order) {
+		MatchingEngine engine = matching;
+		if (engine != null) {
+			engine.submit(clientId, order);
+		}
+	}
+
+	/**
+	 * Writes the trades of a client that were made since its last request as
+	 * ServerSendOrders messages to the given stream
+	 * 
+	 * @param clientId
+	 * @param format   format of the written messages
+	 * @param out      stream the trades are written to
+	 * @throws IOException
+	 */
+	private void streamTrades(int clientId, WireFormat format, OutputStream out) throws IOException {
+		MatchingEngine engine = matching;
+		if (engine == null) {
+			return;
+		}
+		for (Trade trade : engine.takeTrades(clientId)) {
+			out.write(buildResponse(trade.toMessage(clientId), format));
+			if (format == WireFormat.JSON) {
+				out.write('\n');
+			}
 		}
 	}
+
+	/**
+	 * Writes the stored orders of a client to the given stream. Each order is
+	 * decrypted and written as ServerSendOrders message directly, JSON messages are
+	 * separated by a new line. If the journal is enabled all orders of the client
+	 * can be requested, otherwise only the last ones kept in the queue.
+	 * 
+	 * @param clientId
+	 * @param since    smallest sequence number of the orders that are written
+	 * @param limit    maximum number of orders that are written
+	 * @param format   format of the written messages
+	 * @param out      stream the orders are written to
+	 * @throws CoseException
+	 * @throws IOException
+	 */
+	public void streamOrders(int clientId, long since, int limit, WireFormat format, OutputStream out)
+			throws CoseException, IOException {
+		OrderCache cache = orderCache;
+		OrderJournal orderJournal = journal;
+		List<StoredOrder> orders = orderJournal != null ? orderJournal.getOrders(clientId, since, limit)
+				: queues.getOrders(clientId, since, limit);
+		for (StoredOrder storedOrder : orders) {
+			String decrypted = cache == null ? null : cache.get(clientId, storedOrder.sequence);
+			if (decrypted == null) {
+				long start = System.nanoTime();
+				byte[] plaintext = decryptOrder(clientId, storedOrder.encryptedOrder);
+				metrics.record(Stage.Decrypt, start);
+				decrypted = plaintext == null ? null : renderOrder(plaintext);
+				if (cache != null && decrypted != null) {
+					cache.put(clientId, storedOrder.sequence, decrypted);
+				}
+			}
+			out.write(buildResponse(Message.serverSendOrdersMessage(decrypted, storedOrder.sequence), format));
+			if (format == WireFormat.JSON) {
+				out.write('\n');
+			}
+		}
+	}
+
 	/**
 	 * Processes incoming orders. Values of messages are read out and validation
 	 * process gets started. Server sends back a response to client showing if
@@ -191,35 +735,391 @@ public class Server extends Thread {
 	 * @param message incoming from interaction of client with server
 	 * @return
 	 */
+	@Override
 	public String acceptMessage(String message) {
 
-		boolean isCorrectMessage = false;
-		MessageType type = null;
-		int clientId = 0;
-		ObjectMapper mapper = new ObjectMapper();
+		if (message.length() > MAX_MESSAGE_SIZE) {
+			metrics.countRejection(Rejection.TooLarge);
+			return new String(MessageCodec.encodeFailure("Message too large", WireFormat.JSON),
+					StandardCharsets.UTF_8);
+		}
 		try {
-			SignedMessage signedMessage = mapper.readValue(message, SignedMessage.class);
-			clientId = signedMessage.getClientId();
+			long start = System.nanoTime();
+			SignedMessage signedMessage = MessageCodec.readSignedMessage(message);
+			long parseNanos = System.nanoTime() - start;
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			acceptSignedMessage(signedMessage, getVerificationKey(signedMessage.getClientId()), WireFormat.JSON, out,
+					parseNanos);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			p("Exception " + e.getLocalizedMessage());
+			return new String(failure("Failure", WireFormat.JSON), StandardCharsets.UTF_8);
+		}
+	}
 
-			byte[] signature = signedMessage.getSignature();
+	/**
+	 * Processes an incoming order that was sent in the given format. The response
+	 * is given back in the same format.
+	 * 
+	 * @param message incoming from interaction of client with server
+	 * @param format  format of message and response
+	 * @return byte[] : encoded response
+	 */
+	@Override
+	public byte[] acceptMessage(byte[] message, WireFormat format) {
 
-			isCorrectMessage = checkSignature(clientId, signedMessage.getContent().getBytes(), signature);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			acceptMessage(message, format, out);
+		} catch (IOException e) {
+			p("Exception " + e.getLocalizedMessage());
+			return failure("Failure", format);
+		}
+		return out.toByteArray();
+	}
 
-			if (isCorrectMessage == true) {
-				Message theMessage = mapper.readValue(signedMessage.getContent(), Message.class);
-				type = theMessage.getMessageType();
+	/**
+	 * Processes an incoming order that was sent in the given format. The response
+	 * is written in the same format to the given stream while it is created, so
+	 * stored orders requested with GetOrders are sent one by one.
+	 * 
+	 * @param message incoming from interaction of client with server
+	 * @param format  format of message and response
+	 * @param out     stream the response is written to
+	 * @throws IOException if the response can not be written
+	 */
+	public void acceptMessage(byte[] message, WireFormat format, OutputStream out) throws IOException {
 
-				p(theMessage.getMessageType().toString());
-				
-				return parseMessage(type, clientId, isCorrectMessage, signedMessage);
+		if (message.length > MAX_MESSAGE_SIZE) {
+			metrics.countRejection(Rejection.TooLarge);
+			out.write(MessageCodec.encodeFailure("Message too large", format));
+			return;
+		}
+		SignedMessage signedMessage;
+		long start = System.nanoTime();
+		try {
+			signedMessage = MessageCodec.decodeSignedMessage(message, format);
+		} catch (IOException e) {
+			p("Exception " + e.getLocalizedMessage());
+			out.write(failure("Failure", format));
+			return;
+		}
+		acceptSignedMessage(signedMessage, getVerificationKey(signedMessage.getClientId()), format, out,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Processes many incoming orders at once. The signatures of all messages are
+	 * validated in parallel, independent of the client that sent them. Afterwards
+	 * the messages are grouped by client and the groups are processed in
+	 * parallel, while the orders of one client are processed in the order they
+	 * were given.
+	 * 
+	 * @param messages incoming from interaction of clients with server
+	 * @return List<String> : responses in the same order as the given messages
+	 */
+	public List<String> acceptMessages(List<String> messages) {
+
+		String[] responses = new String[messages.size()];
+		SignedMessage[] signedMessages = new SignedMessage[messages.size()];
+		long[] parseNanos = new long[messages.size()];
+		// positions of the messages of each client
+		Map<Integer, List<Integer>> positionsByClient = new HashMap<Integer, List<Integer>>();
+
+		for (int i = 0; i < messages.size(); i++) {
+			if (messages.get(i).length() > MAX_MESSAGE_SIZE) {
+				metrics.countRejection(Rejection.TooLarge);
+				responses[i] = new String(MessageCodec.encodeFailure("Message too large", WireFormat.JSON),
+						StandardCharsets.UTF_8);
+				continue;
+			}
+			try {
+				long start = System.nanoTime();
+				signedMessages[i] = MessageCodec.readSignedMessage(messages.get(i));
+				parseNanos[i] = System.nanoTime() - start;
+				positionsByClient.computeIfAbsent(signedMessages[i].getClientId(), id -> new ArrayList<Integer>())
+						.add(i);
+			} catch (JsonProcessingException e) {
+				p("Exception " + e.getLocalizedMessage());
+				responses[i] = new String(failure("Failure", WireFormat.JSON), StandardCharsets.UTF_8);
+			}
+		}
+
+		CheckedMessage[] checked = new CheckedMessage[messages.size()];
+		try {
+			// signatures are validated in parallel, also those of the same client
+			verificationPool.submit(() -> IntStream.range(0, checked.length).parallel()
+					.filter(i -> signedMessages[i] != null)
+					.forEach(i -> checked[i] = checkMessage(signedMessages[i],
+							getVerificationKey(signedMessages[i].getClientId()), WireFormat.JSON, parseNanos[i])))
+					.get();
+			// orders of one client are stored in the order they were given
+			verificationPool.submit(() -> positionsByClient.values().parallelStream().forEach(positions -> {
+				for (int i : positions) {
+					if (checked[i].rejection != null) {
+						responses[i] = new String(checked[i].rejection, StandardCharsets.UTF_8);
+						continue;
+					}
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					try {
+						processMessage(checked[i], WireFormat.JSON, out);
+						responses[i] = new String(out.toByteArray(), StandardCharsets.UTF_8);
+					} catch (IOException e) {
+						p("Exception " + e.getLocalizedMessage());
+					}
+				}
+			})).get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
 
+		for (int i = 0; i < responses.length; i++) {
+			if (responses[i] == null) {
+				responses[i] = new String(failure("Failure", WireFormat.JSON), StandardCharsets.UTF_8);
+			}
+		}
+		return Arrays.asList(responses);
+	}
+
+	/**
+	 * Validates the signature of an already read in message with the registered
+	 * key of the client and processes the contained order
+	 * 
+	 * @param signedMessage message sent from the client to server
+	 * @param format        format of the signed content and the response
+	 * @param out           stream the response for the client is written to
+	 * @param parseNanos    time it took to read in the signed message
+	 * @throws IOException if the response can not be written
+	 */
+	void acceptSignedMessage(SignedMessage signedMessage, WireFormat format, OutputStream out, long parseNanos)
+			throws IOException {
+		acceptSignedMessage(signedMessage, getVerificationKey(signedMessage.getClientId()), format, out, parseNanos);
+	}
+
+	/**
+	 * Validates the signature of an already read in message and processes the
+	 * contained order
+	 * 
+	 * @param signedMessage message sent from the client to server
+	 * @param key           key of the client that sent the message
+	 * @param format        format of the signed content and the response
+	 * @param out           stream the response for the client is written to
+	 * @param parseNanos    time it took to read in the signed message
+	 * @throws IOException if the response can not be written
+	 */
+	private void acceptSignedMessage(SignedMessage signedMessage, SCCKey key, WireFormat format, OutputStream out,
+			long parseNanos) throws IOException {
+		CheckedMessage checked = checkMessage(signedMessage, key, format, parseNanos);
+		if (checked.rejection != null) {
+			out.write(checked.rejection);
+			return;
+		}
+		processMessage(checked, format, out);
+	}
+
+	/**
+	 * Signed message whose signature was validated and whose content was decoded,
+	 * but that was not processed yet
+	 */
+	private static class CheckedMessage {
+		final SignedMessage signedMessage;
+		MessageType type;
+		Message message;
+		OrderRecord order;
+		List<OrderRecord> batch;
+		// response for the client if the message was rejected, null if it is valid
+		byte[] rejection;
+
+		CheckedMessage(SignedMessage signedMessage) {
+			this.signedMessage = signedMessage;
+		}
+	}
+
+	/**
+	 * Checks a signed message and decodes its content. Only depends on the message
+	 * itself, so messages of the same client can be checked at the same time.
+	 * 
+	 * @param signedMessage message sent from the client to server
+	 * @param key           key of the client that sent the message
+	 * @param format        format of the signed content and the response
+	 * @param parseNanos    time it took to read in the signed message
+	 * @return CheckedMessage : decoded message, or the response if it was rejected
+	 */
+	private CheckedMessage checkMessage(SignedMessage signedMessage, SCCKey key, WireFormat format,
+			long parseNanos) {
+
+		CheckedMessage checked = new CheckedMessage(signedMessage);
+		int clientId = signedMessage.getClientId();
+		// misbehaving clients are rejected before the expensive signature check
+		Rejection rejection = checkEnvelope(signedMessage, key, format);
+		if (rejection != null) {
+			metrics.countRejection(rejection);
+			checked.rejection = MessageCodec.encodeFailure(rejection.toString(), format);
+			return checked;
+		}
+		try {
+			byte[] signature = signedMessage.getSignature();
+			byte[] content = signedMessage.contentBytes();
+
+			// the content is decoded before the signature check, such that every order of
+			// a batch is counted against the rate limit before the expensive check
+			long start = System.nanoTime();
+			if (format == WireFormat.COMPACT && OrderRecord.isRecord(content)) {
+				// orders sent as records are used without creating a message
+				checked.order = OrderRecord.decode(content).withSequence(signedMessage.getSequence());
+				checked.type = checked.order.getType();
+			} else if (format == WireFormat.COMPACT && OrderRecord.isBatch(content)) {
+				checked.batch = OrderRecord.decodeBatch(content);
+				checked.type = MessageType.SubmitOrders;
 			} else {
-				return Message.createServerResponseMessage(isCorrectMessage);
+				checked.message = MessageCodec.decodeMessage(content, format);
+				checked.type = checked.message.getMessageType();
+				if (OrderRecord.isOrder(checked.type)) {
+					checked.order = OrderRecord.fromMessage(checked.message, signedMessage.getSequence());
+				} else if (checked.type == MessageType.SubmitOrders) {
+					checked.batch = OrderRecord.fromBatchMessage(checked.message, 0);
+				}
+			}
+			if (checked.batch != null) {
+				checked.batch = numberBatch(checked.batch, signedMessage.getSequence());
+			}
+			metrics.getLatency(Stage.Parse).record(parseNanos + System.nanoTime() - start);
+
+			// permits of compact batches were already taken with the envelope
+			RateLimiter limiter = rateLimiter;
+			if (checked.batch != null && format != WireFormat.COMPACT && limiter != null
+					&& !limiter.tryAcquire(clientId, checked.batch.size() - 1)) {
+				metrics.countRejection(Rejection.RateLimited);
+				checked.rejection = MessageCodec.encodeFailure(Rejection.RateLimited.toString(), format);
+				return checked;
+			}
+
+			if (!replayFilter.isFresh(clientId, signedMessage.getSequence(), signedMessage.getTimestamp())) {
+				metrics.countRejectedReplay();
+				checked.rejection = buildResponse(Message.serverResponseMessage(false), format);
+				return checked;
+			}
+
+			start = System.nanoTime();
+			boolean isCorrectMessage = checkSignature(key, signedMessage.signedBytes(), signature);
+			metrics.record(Stage.SignatureCheck, start);
+			if (isCorrectMessage == false) {
+				metrics.countRejectedSignature();
+				checked.rejection = buildResponse(Message.serverResponseMessage(isCorrectMessage), format);
 			}
-		} catch (JsonProcessingException | CoseException e) {
+		} catch (IOException | CoseException | IllegalArgumentException e) {
 			p("Exception " + e.getLocalizedMessage());
-			return new String("{\"Failure\"}");
+			checked.rejection = failure("Failure", format);
 		}
+		return checked;
+	}
+
+	/**
+	 * Processes a checked message. Messages of the same client have to be
+	 * processed one after the other, in the order they were sent.
+	 * 
+	 * @param checked message that passed {@link #checkMessage}
+	 * @param format  format of the response
+	 * @param out     stream the response for the client is written to
+	 * @throws IOException if the response can not be written
+	 */
+	private void processMessage(CheckedMessage checked, WireFormat format, OutputStream out) throws IOException {
+		SignedMessage signedMessage = checked.signedMessage;
+		int clientId = signedMessage.getClientId();
+		// another copy of the message may have been accepted in the meantime
+		if (!replayFilter.markSeen(clientId, signedMessage.getSequence())) {
+			metrics.countRejectedReplay();
+			out.write(buildResponse(Message.serverResponseMessage(false), format));
+			return;
+		}
+		metrics.countMessage(checked.type);
+		if (ThreadLocalRandom.current().nextInt(LOG_SAMPLE_RATE) == 0) {
+			logger.info("Sampled message of client " + clientId + ": " + checked.type);
+		}
+
+		// a failure is appended to what was already written for the message
+		try {
+			parseMessage(checked.type, clientId, true, checked.order, checked.batch, checked.message, format,
+					out);
+		} catch (CoseException | NumberFormatException e) {
+			p("Exception " + e.getLocalizedMessage());
+			out.write(failure("Failure", format));
+		}
+	}
+
+	/**
+	 * Cheap checks of a signed message that are done before its signature is
+	 * validated
+	 * 
+	 * @param signedMessage
+	 * @param key           key of the client, null if the client is unknown
+	 * @param format        format the message was sent in
+	 * @return Rejection : reason the message is rejected, null if it can be
+	 *         processed
+	 */
+	private Rejection checkEnvelope(SignedMessage signedMessage, SCCKey key, WireFormat format) {
+		if (key == null) {
+			return Rejection.UnknownClient;
+		}
+		byte[] signature = signedMessage.getSignature();
+		if (signature == null || signature.length == 0 || !signedMessage.hasContent()) {
+			return Rejection.Malformed;
+		}
+		if (signature.length > MAX_SIGNATURE_SIZE || signedMessage.contentBytes().length > MAX_CONTENT_SIZE) {
+			return Rejection.TooLarge;
+		}
+		RateLimiter limiter = rateLimiter;
+		if (limiter != null && !limiter.tryAcquire(signedMessage.getClientId(), permits(signedMessage, format))) {
+			return Rejection.RateLimited;
+		}
+		return null;
+	}
+
+	/**
+	 * Number of rate limit permits a message needs before it is decoded. Every
+	 * order of a compact batch needs a permit, the number of orders follows from
+	 * the length of the batch. Other messages need a single permit.
+	 * 
+	 * @param signedMessage
+	 * @param format
+	 * @return int : number of permits
+	 */
+	private static int permits(SignedMessage signedMessage, WireFormat format) {
+		if (format == WireFormat.COMPACT) {
+			byte[] content = signedMessage.contentBytes();
+			if (OrderRecord.isBatch(content)) {
+				return (content.length - 1) / OrderRecord.ENCODED_SIZE;
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Encodes a response message and records the time it took
+	 * 
+	 * @param response
+	 * @param format
+	 * @return byte[] : encoded response
+	 * @throws IOException
+	 */
+	private byte[] buildResponse(Message response, WireFormat format) throws IOException {
+		long start = System.nanoTime();
+		byte[] encoded = MessageCodec.encodeMessage(response, format);
+		metrics.record(Stage.ResponseBuild, start);
+		return encoded;
+	}
+
+	/**
+	 * Creates the response for a message that could not be processed and counts
+	 * the failure
+	 * 
+	 * @param text   description of the failure
+	 * @param format
+	 * @return byte[] : encoded failure
+	 */
+	private byte[] failure(String text, WireFormat format) {
+		metrics.countFailure();
+		return MessageCodec.encodeFailure(text, format);
 	}
 
 	/**
@@ -229,17 +1129,20 @@ public class Server extends Thread {
 	 * @param s
 	 */
 	private void p(String s) {
-		System.out.println(Instant.now().toString() + " server: " + s);
+		logger.debug(s);
 	}
 
 	@Override
 	public void run() {
 		while (true) {
-			p("processing orders");
+			logger.info("processing orders: " + metrics.getMessagesTotal() + " messages, "
+					+ metrics.getRejectedSignatures() + " rejected signatures, " + metrics.getStoredOrders()
+					+ " stored orders, " + metrics.getPendingOrders() + " pending orders");
 			try {
 				Thread.sleep((long) (Math.random() * sendFrequency + 1));
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				// executor of the server is shut down
+				return;
 			}
 		}
 	}
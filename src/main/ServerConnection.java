@@ -0,0 +1,100 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Connection of a client to a {@link NetworkServer}.
+ *
+ * Messages are sent in frames (see {@link Frame}) and each call waits for the
+ * response of the server. A connection can be shared by several threads, the
+ * requests are then sent one after another. A lock is used instead of
+ * synchronized, so virtual threads waiting for the server do not block their
+ * carrier thread.
+ */
+public class ServerConnection implements AutoCloseable {
+
+	private final SocketChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(Frame.HEADER_SIZE);
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Connects to a server
+	 *
+	 * @param host
+	 * @param port
+	 * @throws IOException
+	 */
+	public ServerConnection(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Registers the key of a client at the server
+	 *
+	 * @param publicKey
+	 * @return int : client ID, -1 if server does not accept the key
+	 * @throws IOException
+	 */
+	public int register(byte[] publicKey) throws IOException {
+		return ByteBuffer.wrap(request(Frame.REGISTER, publicKey)).getInt();
+	}
+
+	/**
+	 * Sends a signed message to the server
+	 *
+	 * @param signedMessage encoded signed message
+	 * @param format        format of the signed message
+	 * @return byte[] : response of the server in the same format
+	 * @throws IOException
+	 */
+	public byte[] send(byte[] signedMessage, WireFormat format) throws IOException {
+		return request(Frame.kindOf(format), signedMessage);
+	}
+
+	private byte[] request(byte kind, byte[] payload) throws IOException {
+		ByteBuffer frame = Frame.encode(kind, payload);
+		lock.lock();
+		try {
+			while (frame.hasRemaining()) {
+				channel.write(frame);
+			}
+
+			header.clear();
+			readFully(header);
+			int length = header.getInt(0);
+			Frame.checkLength(length);
+			ByteBuffer response = ByteBuffer.allocate(length);
+			readFully(response);
+			if (response.get(0) != kind) {
+				throw new IOException("Unexpected response of kind " + response.get(0));
+			}
+			byte[] result = new byte[length - 1];
+			response.position(1);
+			response.get(result);
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Connection closed by server");
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,298 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import main.Message.MessageType;
+
+/**
+ * Metrics of the processing of messages in the {@link Server}.
+ *
+ * Counts the processed messages per type, rejected signatures and failures and
+ * records the latency of each processing stage. Counters and histograms do not
+ * lock, so recording is cheap enough to be done for every message. The metrics
+ * can be read with {@link #snapshot()} or over JMX.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+	// Stages every message passes through in the server
+	public enum Stage {
+		Parse, SignatureCheck, Encrypt, Decrypt, ResponseBuild
+	}
+
+	// Reasons for rejecting a message before its signature is checked
+	public enum Rejection {
+		UnknownClient, Malformed, TooLarge, RateLimited
+	}
+
+	private final Map<Stage, LatencyHistogram> stageLatencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+	private final Map<MessageType, LongAdder> messageCounts = new EnumMap<MessageType, LongAdder>(MessageType.class);
+	private final LongAdder rejectedSignatures = new LongAdder();
+	private final LongAdder rejectedReplays = new LongAdder();
+	private final Map<Rejection, LongAdder> rejections = new EnumMap<Rejection, LongAdder>(Rejection.class);
+	private final LongAdder failures = new LongAdder();
+	private final OrderStore orders;
+	// queues of asynchronously stored orders, null if orders are stored directly
+	private volatile OrderIngestion ingestion;
+	// order books the orders are matched in, null if orders are not matched
+	private volatile MatchingEngine matching;
+
+	/**
+	 * Constructor of metrics
+	 *
+	 * @param orders store whose number of orders is reported
+	 */
+	public ServerMetrics(OrderStore orders) {
+		this.orders = orders;
+		for (Stage stage : Stage.values()) {
+			stageLatencies.put(stage, new LatencyHistogram());
+		}
+		for (MessageType type : MessageType.values()) {
+			messageCounts.put(type, new LongAdder());
+		}
+		for (Rejection reason : Rejection.values()) {
+			rejections.put(reason, new LongAdder());
+		}
+	}
+
+	/**
+	 * Sets the queues whose depth is reported
+	 *
+	 * @param ingestion
+	 */
+	public void setIngestion(OrderIngestion ingestion) {
+		this.ingestion = ingestion;
+	}
+
+	/**
+	 * Sets the engine whose trades are reported
+	 *
+	 * @param matching
+	 */
+	public void setMatching(MatchingEngine matching) {
+		this.matching = matching;
+	}
+
+	/**
+	 * Records the time a stage took for one message
+	 *
+	 * @param stage
+	 * @param startNanos time the stage started, taken from System.nanoTime()
+	 */
+	public void record(Stage stage, long startNanos) {
+		stageLatencies.get(stage).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Counts a processed message
+	 *
+	 * @param type
+	 */
+	public void countMessage(MessageType type) {
+		messageCounts.get(type).increment();
+	}
+
+	public void countRejectedSignature() {
+		rejectedSignatures.increment();
+	}
+
+	/**
+	 * Counts a message that was rejected before its signature was checked
+	 *
+	 * @param reason
+	 */
+	public void countRejection(Rejection reason) {
+		rejections.get(reason).increment();
+	}
+
+	/**
+	 * Number of messages rejected for a reason before their signature was checked
+	 *
+	 * @param reason
+	 * @return long
+	 */
+	public long getRejections(Rejection reason) {
+		return rejections.get(reason).sum();
+	}
+
+	public void countRejectedReplay() {
+		rejectedReplays.increment();
+	}
+
+	public void countFailure() {
+		failures.increment();
+	}
+
+	/**
+	 * Getter for the latencies of a stage
+	 *
+	 * @param stage
+	 * @return LatencyHistogram
+	 */
+	public LatencyHistogram getLatency(Stage stage) {
+		return stageLatencies.get(stage);
+	}
+
+	/**
+	 * Number of processed messages of a type
+	 *
+	 * @param type
+	 * @return long
+	 */
+	public long getMessageCount(MessageType type) {
+		return messageCounts.get(type).sum();
+	}
+
+	@Override
+	public long getMessagesTotal() {
+		long total = 0;
+		for (LongAdder count : messageCounts.values()) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public long getRejectedSignatures() {
+		return rejectedSignatures.sum();
+	}
+
+	@Override
+	public long getRejectedReplays() {
+		return rejectedReplays.sum();
+	}
+
+	@Override
+	public long getRejectedEarly() {
+		long total = 0;
+		for (LongAdder count : rejections.values()) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public long getStoredOrders() {
+		return orders.totalSize();
+	}
+
+	@Override
+	public long getPendingOrders() {
+		OrderIngestion current = ingestion;
+		return current == null ? 0 : current.getPending();
+	}
+
+	@Override
+	public long getOrderMemoryAllocated() {
+		OrderArena arena = orders.getArena();
+		return arena == null ? 0 : arena.getAllocatedBytes();
+	}
+
+	@Override
+	public long getOrderMemoryUsed() {
+		OrderArena arena = orders.getArena();
+		return arena == null ? 0 : arena.getUsedBytes();
+	}
+
+	@Override
+	public Map<String, Long> getSnapshot() {
+		return snapshot();
+	}
+
+	/**
+	 * Current values of all metrics. Latencies are given in nanoseconds.
+	 *
+	 * @return Map<String, Long> : values by name
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		for (MessageType type : MessageType.values()) {
+			snapshot.put("messages." + type, messageCounts.get(type).sum());
+		}
+		snapshot.put("messages.total", getMessagesTotal());
+		snapshot.put("signatures.rejected", getRejectedSignatures());
+		snapshot.put("replays.rejected", getRejectedReplays());
+		for (Rejection reason : Rejection.values()) {
+			snapshot.put("rejected." + reason, rejections.get(reason).sum());
+		}
+		snapshot.put("failures", getFailures());
+		snapshot.put("orders.stored", getStoredOrders());
+		OrderIngestion current = ingestion;
+		if (current != null) {
+			int[] depths = current.getQueueDepths();
+			for (int i = 0; i < depths.length; i++) {
+				snapshot.put("ingestion.queue." + i, (long) depths[i]);
+			}
+			snapshot.put("ingestion.pending", (long) current.getPending());
+			snapshot.put("ingestion.rejected", current.getRejected());
+			snapshot.put("ingestion.shed", current.getShed());
+			snapshot.put("ingestion.failed", current.getFailed());
+		}
+		MatchingEngine engine = matching;
+		if (engine != null) {
+			snapshot.put("matching.pending", (long) engine.getPending());
+			snapshot.put("matching.orders", engine.getMatchedOrders());
+			snapshot.put("matching.trades", engine.getTrades());
+			snapshot.put("matching.amount", engine.getTradedAmount());
+			snapshot.put("matching.dropped", engine.getDroppedTrades());
+			snapshot.put("matching.rejected", engine.getRejected());
+			snapshot.put("matching.shed", engine.getShed());
+		}
+		OrderArena arena = orders.getArena();
+		if (arena != null) {
+			snapshot.put("orders.offHeap.allocated", arena.getAllocatedBytes());
+			snapshot.put("orders.offHeap.used", arena.getUsedBytes());
+			snapshot.put("orders.offHeap.overflows", arena.getOverflows());
+		}
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram latency = stageLatencies.get(stage);
+			snapshot.put("stage." + stage + ".count", latency.getCount());
+			snapshot.put("stage." + stage + ".p50", latency.getValueAtPercentile(50));
+			snapshot.put("stage." + stage + ".p99", latency.getValueAtPercentile(99));
+			snapshot.put("stage." + stage + ".max", latency.getMax());
+		}
+		return snapshot;
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram latency : stageLatencies.values()) {
+			latency.reset();
+		}
+		for (LongAdder count : messageCounts.values()) {
+			count.reset();
+		}
+		rejectedSignatures.reset();
+		rejectedReplays.reset();
+		for (LongAdder count : rejections.values()) {
+			count.reset();
+		}
+		failures.reset();
+	}
+
+	/**
+	 * Publishes the metrics over JMX
+	 *
+	 * @param name name the metrics are published under, e.g. "server"
+	 */
+	public void registerMBean(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("main:type=ServerMetrics,name=" + name));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package main;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link ServerMetrics} that is published over JMX
+ */
+public interface ServerMetricsMXBean {
+
+	/**
+	 * @return long : number of processed messages
+	 */
+	long getMessagesTotal();
+
+	/**
+	 * @return long : number of messages with invalid signature
+	 */
+	long getRejectedSignatures();
+
+	/**
+	 * @return long : number of messages that were rejected as replay
+	 */
+	long getRejectedReplays();
+
+	/**
+	 * @return long : number of messages that were rejected before their signature
+	 *         was checked, e.g. of unknown clients or clients over their rate limit
+	 */
+	long getRejectedEarly();
+
+	/**
+	 * @return long : number of messages that could not be processed
+	 */
+	long getFailures();
+
+	/**
+	 * @return long : number of encrypted orders currently stored for all clients
+	 */
+	long getStoredOrders();
+
+	/**
+	 * @return long : number of orders waiting to be stored asynchronously
+	 */
+	long getPendingOrders();
+
+	/**
+	 * @return long : off-heap memory taken for stored orders in bytes, 0 if orders
+	 *         are kept on the heap
+	 */
+	long getOrderMemoryAllocated();
+
+	/**
+	 * @return long : off-heap memory holding stored orders in bytes, 0 if orders
+	 *         are kept on the heap
+	 */
+	long getOrderMemoryUsed();
+
+	/**
+	 * @return Map<String, Long> : all counters and latency percentiles by name
+	 */
+	Map<String, Long> getSnapshot();
+
+	/**
+	 * Clears all counters and latencies
+	 */
+	void reset();
+
+}
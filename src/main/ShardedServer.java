@@ -0,0 +1,225 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import main.MessageCodec.WireFormat;
+
+/**
+ * Server that is split into independent shards, usually one per core.
+ *
+ * Every shard is a {@link Server} with its own client registry, order store and
+ * keys, and all its work is done by a single worker thread. Clients are
+ * assigned to a shard when they register: the client ID of a client of shard i
+ * is i, i + n, i + 2n and so on for n shards. Incoming messages are read in on
+ * the thread of the caller and handed over to the shard the client ID belongs
+ * to. As shards do not share any state, they do not slow each other down. Only
+ * the threads that validate batches of messages in parallel are shared, so
+ * there are not more of them than cores.
+ */
+public class ShardedServer implements OrderServer {
+
+	private final Server[] shards;
+	private final ExecutorService[] workers;
+	// threads that validate batches of messages for all shards
+	private final ForkJoinPool verificationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Creates the shards and their worker threads
+	 *
+	 * @param shardCount number of shards
+	 */
+	public ShardedServer(int shardCount) {
+		shards = new Server[shardCount];
+		workers = new ExecutorService[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Server(new OrderStore(), new ClientRegistry(i, shardCount), verificationPool);
+			int shard = i;
+			workers[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "server-shard-" + shard);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Shard the client with the given ID belongs to
+	 *
+	 * @param clientId
+	 * @return int : index of shard
+	 */
+	public int shardOf(int clientId) {
+		return Math.floorMod(clientId, shards.length);
+	}
+
+	/**
+	 * Getter for a single shard, e.g. to read its metrics
+	 *
+	 * @param index
+	 * @return Server
+	 */
+	public Server getShard(int index) {
+		return shards[index];
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Runs a task on the worker of a shard and waits for its result
+	 */
+	private <T> T runOn(int shard, Callable<T> task) throws IOException {
+		Future<T> result = workers[shard].submit(task);
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shard " + shard, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failure in shard " + shard, e.getCause());
+		}
+	}
+
+	/**
+	 * Registers the key of a client at one of the shards. The same key is always
+	 * registered at the same shard.
+	 *
+	 * @param key publicKey of client
+	 * @return int : client ID, -1 if key of client can not be used
+	 */
+	@Override
+	public int registerClient(byte[] key) {
+		int shard = Math.floorMod(Arrays.hashCode(key), shards.length);
+		try {
+			return runOn(shard, () -> shards[shard].registerClient(key));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	/**
+	 * Registers the keys of several clients. The keys are grouped by shard and
+	 * every shard registers its keys in one task, all shards at the same time.
+	 *
+	 * @param keys publicKeys of clients
+	 * @return int[] : client IDs in the order of the keys, -1 for keys that can
+	 *         not be used
+	 */
+	@Override
+	public int[] registerClients(List<byte[]> keys) {
+		List<List<Integer>> indexesByShard = new ArrayList<List<Integer>>();
+		for (int i = 0; i < shards.length; i++) {
+			indexesByShard.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			indexesByShard.get(Math.floorMod(Arrays.hashCode(keys.get(i)), shards.length)).add(i);
+		}
+
+		int[] ids = new int[keys.size()];
+		Arrays.fill(ids, -1);
+		List<Future<?>> registrations = new ArrayList<Future<?>>();
+		for (int i = 0; i < shards.length; i++) {
+			Server shard = shards[i];
+			List<Integer> indexes = indexesByShard.get(i);
+			if (!indexes.isEmpty()) {
+				registrations.add(workers[i].submit(() -> {
+					for (int index : indexes) {
+						ids[index] = shard.registerClient(keys.get(index));
+					}
+				}));
+			}
+		}
+		for (Future<?> registration : registrations) {
+			try {
+				registration.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		return ids;
+	}
+
+	@Override
+	public String acceptMessage(String message) {
+		return new String(acceptMessage(message.getBytes(StandardCharsets.UTF_8), WireFormat.JSON),
+				StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public byte[] acceptMessage(byte[] message, WireFormat format) {
+		if (message.length > Server.MAX_MESSAGE_SIZE) {
+			return MessageCodec.encodeFailure("Message too large", format);
+		}
+		long start = System.nanoTime();
+		SignedMessage signedMessage;
+		try {
+			signedMessage = MessageCodec.decodeSignedMessage(message, format);
+		} catch (IOException e) {
+			return MessageCodec.encodeFailure("Failure", format);
+		}
+		long parseNanos = System.nanoTime() - start;
+
+		int shard = shardOf(signedMessage.getClientId());
+		try {
+			return runOn(shard, () -> {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				shards[shard].acceptSignedMessage(signedMessage, format, out, parseNanos);
+				return out.toByteArray();
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+			return MessageCodec.encodeFailure("Failure", format);
+		}
+	}
+
+	/**
+	 * Lets the orders of all shards be matched in common order books, so clients
+	 * of different shards trade with each other
+	 *
+	 * @param threads number of threads the order books are split across
+	 */
+	public void enableMatching(int threads) {
+		MatchingEngine engine = new MatchingEngine(threads);
+		for (Server shard : shards) {
+			shard.setMatchingEngine(engine);
+		}
+	}
+
+	/**
+	 * Publishes the metrics of all shards over JMX
+	 *
+	 * @param name name the metrics are published under, the shard index is added
+	 */
+	public void registerMBeans(String name) {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].metrics.registerMBean(name + "-shard-" + i);
+		}
+	}
+
+	/**
+	 * Stops the worker threads of all shards and the shared verification threads
+	 */
+	public void shutdown() {
+		for (ExecutorService worker : workers) {
+			worker.shutdown();
+		}
+		verificationPool.shutdown();
+	}
+
+}
@@ -1,12 +1,19 @@
 package main;
 
+import java.nio.ByteBuffer;
+
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
+import main.MessageCodec.WireFormat;
 /**
  * Realizes the format of a message which should contain the order of the client as well as a 
  * corresponding signature.
+ * 
+ * Each signed message also carries a sequence number and the time it was created, which are
+ * signed together with the content, such that the server can detect replayed messages.
  */
 @JsonAutoDetect(fieldVisibility = Visibility.ANY)
 public class SignedMessage {
@@ -21,6 +28,28 @@ public class SignedMessage {
 		this.clientId = clientId;
 	}
 
+	// increased by the client with every message, starting with 1
+	private long sequence;
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	// creation time of the message in milliseconds
+	private long timestamp;
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
 	private String content;
 
 	public String getContent() {
@@ -41,21 +70,105 @@ public class SignedMessage {
 
 	private byte[] signature;
 
-	private SignedMessage(int clientId, String content, byte[] signature) {
+	// content of a message that was sent as CBOR. Not part of the JSON representation
+	@JsonIgnore
+	private byte[] binaryContent;
+
+	private SignedMessage(int clientId, long sequence, long timestamp, String content, byte[] signature) {
 		setClientId(clientId);
+		this.sequence = sequence;
+		this.timestamp = timestamp;
 		this.content = content;
 		this.signature = signature;
 	}
 
+	/**
+	 * Bytes of the content that were signed by the client
+	 * 
+	 * @return byte[]
+	 */
+	byte[] contentBytes() {
+		return binaryContent != null ? binaryContent : content.getBytes();
+	}
+
+	/**
+	 * Shows if the message contains any content
+	 * 
+	 * @return boolean
+	 */
+	boolean hasContent() {
+		return binaryContent != null || content != null;
+	}
+
+	/**
+	 * Bytes that are covered by the signature of this message
+	 * 
+	 * @return byte[]
+	 */
+	byte[] signedBytes() {
+		return signedBytes(sequence, timestamp, contentBytes());
+	}
+
+	/**
+	 * Bytes that have to be signed by the client: the sequence number and the
+	 * timestamp followed by the content
+	 * 
+	 * @param sequence
+	 * @param timestamp
+	 * @param content   encoded content
+	 * @return byte[]
+	 */
+	public static byte[] signedBytes(long sequence, long timestamp, byte[] content) {
+		return ByteBuffer.allocate(16 + content.length).putLong(sequence).putLong(timestamp).put(content).array();
+	}
+
+	/**
+	 * Creates a signed message with content that is not sent as JSON string
+	 * 
+	 * @param clientId
+	 * @param sequence
+	 * @param timestamp
+	 * @param content   encoded content
+	 * @param signature
+	 * @return SignedMessage
+	 */
+	static SignedMessage binarySignedMessage(int clientId, long sequence, long timestamp, byte[] content,
+			byte[] signature) {
+		SignedMessage signedMessage = new SignedMessage(clientId, sequence, timestamp, null, signature);
+		signedMessage.binaryContent = content;
+		return signedMessage;
+	}
+
 	public SignedMessage() {
 
 	}
 
-	public static String createSignedMessage(int clientId, String message, byte[] signature)
-			throws JsonProcessingException {
-		ObjectMapper mapper = new ObjectMapper();
+	public static String createSignedMessage(int clientId, long sequence, long timestamp, String message,
+			byte[] signature) throws JsonProcessingException {
+		return MessageCodec.writeSignedMessage(new SignedMessage(clientId, sequence, timestamp, message, signature));
+	}
 
-		return mapper.writeValueAsString(new SignedMessage(clientId, message, signature));
+	/**
+	 * Creates a signed message in the given format. For JSON the content has to be
+	 * the bytes of a JSON message.
+	 * 
+	 * @param clientId
+	 * @param sequence
+	 * @param timestamp
+	 * @param message   encoded message in the given format
+	 * @param signature
+	 * @param format
+	 * @return byte[] : encoded signed message
+	 * @throws JsonProcessingException
+	 */
+	public static byte[] createSignedMessage(int clientId, long sequence, long timestamp, byte[] message,
+			byte[] signature, WireFormat format) throws JsonProcessingException {
+		if (format == WireFormat.JSON) {
+			return MessageCodec.encodeSignedMessage(
+					new SignedMessage(clientId, sequence, timestamp, new String(message), signature), format);
+		}
+		return MessageCodec.encodeSignedMessage(binarySignedMessage(clientId, sequence, timestamp, message, signature),
+				format);
 	}
 
 }
@@ -0,0 +1,74 @@
+package main;
+
+import main.Message.MessageType;
+
+/**
+ * Execution of a buy order against a sell order of the same stock, created by
+ * an {@link OrderBook}.
+ */
+public final class Trade {
+
+	private final String isin;
+	// price of the resting order the incoming order was matched with
+	private final long price;
+	private final long amount;
+	private final int buyerId;
+	// sequence number of the buy order
+	private final long buySequence;
+	private final int sellerId;
+	// sequence number of the sell order
+	private final long sellSequence;
+
+	public Trade(String isin, long price, long amount, int buyerId, long buySequence, int sellerId,
+			long sellSequence) {
+		this.isin = isin;
+		this.price = price;
+		this.amount = amount;
+		this.buyerId = buyerId;
+		this.buySequence = buySequence;
+		this.sellerId = sellerId;
+		this.sellSequence = sellSequence;
+	}
+
+	/**
+	 * Creates the message a party of the trade is informed with. The other party
+	 * of the trade is not part of the message.
+	 *
+	 * @param clientId buyer or seller
+	 * @return Message : ServerSendOrders message
+	 */
+	public Message toMessage(int clientId) {
+		boolean buyer = clientId == buyerId;
+		return Message.serverSendTradeMessage(isin, buyer ? MessageType.BuyStock : MessageType.SellStock, amount,
+				price, buyer ? buySequence : sellSequence);
+	}
+
+	public String getIsin() {
+		return isin;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	public int getBuyerId() {
+		return buyerId;
+	}
+
+	public long getBuySequence() {
+		return buySequence;
+	}
+
+	public int getSellerId() {
+		return sellerId;
+	}
+
+	public long getSellSequence() {
+		return sellSequence;
+	}
+
+}
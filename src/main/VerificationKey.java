@@ -0,0 +1,38 @@
+package main;
+
+import java.security.PublicKey;
+
+import org.securecryptoconfig.SCCException;
+import org.securecryptoconfig.SCCKey;
+
+/**
+ * Public key of a registered client that is used by the server for signature
+ * validation.
+ *
+ * A plain SCCKey decodes its public key bytes every time a signature gets
+ * validated. This key decodes the public key only once when it is created, such
+ * that it can be kept by the server and reused for all following messages of
+ * the client.
+ */
+public class VerificationKey extends SCCKey {
+
+	// already decoded public key of the client
+	private final PublicKey parsedPublicKey;
+
+	/**
+	 * Constructor of verification key
+	 *
+	 * @param publicKey encoded public key of client
+	 * @throws SCCException if the public key can not be decoded
+	 */
+	VerificationKey(byte[] publicKey) throws SCCException {
+		super(KeyType.Asymmetric, publicKey, null, "EC");
+		this.parsedPublicKey = super.getPublicKey();
+	}
+
+	@Override
+	protected PublicKey getPublicKey() {
+		return parsedPublicKey;
+	}
+
+}
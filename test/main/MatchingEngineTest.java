@@ -0,0 +1,91 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import main.Message.MessageType;
+import main.OrderIngestion.OverflowPolicy;
+
+/**
+ * Tests of the {@link MatchingEngine}
+ */
+public class MatchingEngineTest {
+
+	@Test
+	public void tradesAreKeptForBothClients() {
+		MatchingEngine engine = new MatchingEngine(2);
+		engine.submit(1, OrderRecord.of(MessageType.SellStock, "DE0007164600", 10, 100, 1));
+		engine.submit(2, OrderRecord.of(MessageType.BuyStock, "DE0007164600", 10, 100, 1));
+		engine.close();
+
+		List<Trade> seller = engine.takeTrades(1);
+		List<Trade> buyer = engine.takeTrades(2);
+		assertEquals(1, seller.size());
+		assertEquals(1, buyer.size());
+		assertEquals(2, seller.get(0).getBuyerId());
+		assertEquals(10, buyer.get(0).getAmount());
+		assertEquals(2, engine.getMatchedOrders());
+		assertEquals(1, engine.getTrades());
+		// trades are only given out once
+		assertTrue(engine.takeTrades(1).isEmpty());
+	}
+
+	@Test
+	public void stocksAreMatchedInSeparateBooks() {
+		MatchingEngine engine = new MatchingEngine(4);
+		engine.submit(1, OrderRecord.of(MessageType.SellStock, "DE0007164600", 10, 100, 1));
+		engine.submit(2, OrderRecord.of(MessageType.BuyStock, "US0378331005", 10, 100, 1));
+		engine.close();
+
+		assertEquals(0, engine.getTrades());
+		assertEquals(2, engine.getMatchedOrders());
+	}
+
+	@Test
+	public void ordersOfOneStockAreMatchedInSubmitOrder() {
+		MatchingEngine engine = new MatchingEngine(2, 1024, OverflowPolicy.Block);
+		for (int i = 1; i <= 100; i++) {
+			engine.submit(i, OrderRecord.of(MessageType.SellStock, "DE0007164600", 1, 100, i));
+		}
+		engine.submit(0, OrderRecord.of(MessageType.BuyStock, "DE0007164600", 100, 100, 1));
+		engine.close();
+
+		List<Trade> trades = engine.takeTrades(0);
+		assertEquals(100, trades.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i + 1, trades.get(i).getSellerId());
+		}
+	}
+
+	@Test
+	public void oldestTradesAreDroppedIfNotRequested() {
+		MatchingEngine engine = new MatchingEngine(1);
+		int orders = MatchingEngine.TRADE_HISTORY + 10;
+		for (int i = 0; i < orders; i++) {
+			engine.submit(1, OrderRecord.of(MessageType.SellStock, "DE0007164600", 1, 100, i));
+			engine.submit(2, OrderRecord.of(MessageType.BuyStock, "DE0007164600", 1, 100, i));
+		}
+		engine.close();
+
+		List<Trade> trades = engine.takeTrades(1);
+		assertEquals(MatchingEngine.TRADE_HISTORY, trades.size());
+		assertEquals(10, trades.get(0).getSellSequence());
+		assertEquals(20, engine.getDroppedTrades());
+	}
+
+	@Test
+	public void closedEngineRejectsOrders() {
+		MatchingEngine engine = new MatchingEngine(1);
+		engine.close();
+
+		assertFalse(engine.submit(1, OrderRecord.of(MessageType.BuyStock, "DE0007164600", 1, 100, 1)));
+		assertEquals(1, engine.getRejected());
+		assertEquals(0, engine.getMatchedOrders());
+	}
+
+}
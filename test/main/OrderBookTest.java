@@ -0,0 +1,215 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import main.Message.MessageType;
+
+/**
+ * Tests of the price-time priority of the {@link OrderBook}
+ */
+public class OrderBookTest {
+
+	private static final String ISIN = "DE0007164600";
+
+	@Test
+	public void bestPriceIsMatchedFirst() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 10, 102, 1), trades::add);
+		book.match(2, OrderRecord.of(MessageType.SellStock, ISIN, 10, 100, 1), trades::add);
+		book.match(3, OrderRecord.of(MessageType.SellStock, ISIN, 10, 101, 1), trades::add);
+
+		long resting = book.match(4, OrderRecord.of(MessageType.BuyStock, ISIN, 25, 102, 1), trades::add);
+
+		assertEquals(0, resting);
+		assertEquals(3, trades.size());
+		assertEquals(100, trades.get(0).getPrice());
+		assertEquals(2, trades.get(0).getSellerId());
+		assertEquals(101, trades.get(1).getPrice());
+		assertEquals(3, trades.get(1).getSellerId());
+		assertEquals(102, trades.get(2).getPrice());
+		assertEquals(5, trades.get(2).getAmount());
+		assertEquals(5, book.getDepth(false, 102));
+	}
+
+	@Test
+	public void ordersWithSamePriceAreMatchedInArrivalOrder() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int client = 1; client <= 3; client++) {
+			book.match(client, OrderRecord.of(MessageType.BuyStock, ISIN, 10, 50, client), trades::add);
+		}
+
+		book.match(9, OrderRecord.of(MessageType.SellStock, ISIN, 30, 50, 1), trades::add);
+
+		assertEquals(3, trades.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, trades.get(i).getBuyerId());
+			assertEquals(i + 1, trades.get(i).getBuySequence());
+			assertEquals(9, trades.get(i).getSellerId());
+		}
+		assertEquals(0, book.getLevels());
+	}
+
+	@Test
+	public void tradesAreMadeAtThePriceOfTheRestingOrder() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.BuyStock, ISIN, 10, 105, 1), trades::add);
+
+		book.match(2, OrderRecord.of(MessageType.SellStock, ISIN, 10, 100, 1), trades::add);
+
+		assertEquals(1, trades.size());
+		assertEquals(105, trades.get(0).getPrice());
+	}
+
+	@Test
+	public void partlyFilledLimitOrderRestsWithItsRemainder() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 4, 100, 1), trades::add);
+
+		long resting = book.match(2, OrderRecord.of(MessageType.BuyStock, ISIN, 10, 100, 1), trades::add);
+
+		assertEquals(6, resting);
+		assertEquals(1, trades.size());
+		assertEquals(4, trades.get(0).getAmount());
+		assertEquals(-1, book.getBestAsk());
+		assertEquals(100, book.getBestBid());
+		assertEquals(6, book.getDepth(true, 100));
+	}
+
+	@Test
+	public void partlyFilledRestingOrderKeepsItsPlace() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 10, 100, 1), trades::add);
+		book.match(2, OrderRecord.of(MessageType.SellStock, ISIN, 10, 100, 1), trades::add);
+
+		book.match(3, OrderRecord.of(MessageType.BuyStock, ISIN, 4, 100, 1), trades::add);
+		book.match(4, OrderRecord.of(MessageType.BuyStock, ISIN, 8, 100, 1), trades::add);
+
+		assertEquals(3, trades.size());
+		assertEquals(1, trades.get(1).getSellerId());
+		assertEquals(6, trades.get(1).getAmount());
+		assertEquals(2, trades.get(2).getSellerId());
+		assertEquals(2, trades.get(2).getAmount());
+		assertEquals(8, book.getDepth(false, 100));
+	}
+
+	@Test
+	public void limitIsNotCrossed() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 10, 101, 1), trades::add);
+
+		long resting = book.match(2, OrderRecord.of(MessageType.BuyStock, ISIN, 10, 100, 1), trades::add);
+
+		assertEquals(10, resting);
+		assertEquals(0, trades.size());
+		assertEquals(100, book.getBestBid());
+		assertEquals(101, book.getBestAsk());
+	}
+
+	@Test
+	public void remainderOfMarketOrderIsDropped() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 5, 100, 1), trades::add);
+		book.match(2, OrderRecord.of(MessageType.SellStock, ISIN, 5, 200, 1), trades::add);
+
+		long resting = book.match(3, OrderRecord.of(MessageType.BuyStock, ISIN, 15, 1), trades::add);
+
+		assertEquals(0, resting);
+		assertEquals(2, trades.size());
+		assertEquals(200, trades.get(1).getPrice());
+		assertEquals(0, book.getLevels());
+		assertEquals(-1, book.getBestBid());
+	}
+
+	@Test
+	public void marketOrderWithoutRestingOrdersIsDropped() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+
+		long resting = book.match(1, OrderRecord.of(MessageType.SellStock, ISIN, 15, 1), trades::add);
+
+		assertEquals(0, resting);
+		assertEquals(0, trades.size());
+		assertEquals(0, book.getLevels());
+	}
+
+	@Test
+	public void emptiedLevelIsReusedForNewPrice() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		// moves the head of the level, so a reused level has to start at the front
+		for (int i = 1; i <= 3; i++) {
+			book.match(i, OrderRecord.of(MessageType.SellStock, ISIN, 10, 100, i), trades::add);
+		}
+		book.match(9, OrderRecord.of(MessageType.BuyStock, ISIN, 30, 100, 1), trades::add);
+		assertEquals(0, book.getLevels());
+
+		trades.clear();
+		book.match(4, OrderRecord.of(MessageType.SellStock, ISIN, 7, 90, 4), trades::add);
+		book.match(5, OrderRecord.of(MessageType.SellStock, ISIN, 3, 90, 5), trades::add);
+		assertEquals(10, book.getDepth(false, 90));
+		assertEquals(0, book.getDepth(false, 100));
+
+		book.match(9, OrderRecord.of(MessageType.BuyStock, ISIN, 10, 90, 2), trades::add);
+		assertEquals(2, trades.size());
+		assertEquals(4, trades.get(0).getSellerId());
+		assertEquals(7, trades.get(0).getAmount());
+		assertEquals(5, trades.get(1).getSellerId());
+		assertEquals(3, trades.get(1).getAmount());
+	}
+
+	@Test
+	public void levelKeepsArrivalOrderWhenItGrows() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int i = 0; i < 10; i++) {
+			book.match(i, OrderRecord.of(MessageType.BuyStock, ISIN, 1, 100, i), trades::add);
+		}
+		// the oldest orders are filled, so the ring wraps around before it grows
+		book.match(99, OrderRecord.of(MessageType.SellStock, ISIN, 5, 100, 1), trades::add);
+		for (int i = 10; i < 50; i++) {
+			book.match(i, OrderRecord.of(MessageType.BuyStock, ISIN, 1, 100, i), trades::add);
+		}
+
+		trades.clear();
+		book.match(99, OrderRecord.of(MessageType.SellStock, ISIN, 45, 100, 2), trades::add);
+
+		assertEquals(45, trades.size());
+		for (int i = 0; i < 45; i++) {
+			assertEquals(i + 5, trades.get(i).getBuyerId());
+		}
+		assertEquals(0, book.getLevels());
+	}
+
+	@Test
+	public void manyPriceLevelsStaySorted() {
+		OrderBook book = new OrderBook(ISIN);
+		List<Trade> trades = new ArrayList<Trade>();
+		// more levels than a side has initially, added in mixed order
+		for (int i = 0; i < 200; i++) {
+			long price = 1000 + (i * 37) % 200;
+			book.match(i, OrderRecord.of(MessageType.SellStock, ISIN, 1, price, i), trades::add);
+		}
+		assertEquals(200, book.getLevels());
+		assertEquals(1000, book.getBestAsk());
+
+		book.match(999, OrderRecord.of(MessageType.BuyStock, ISIN, 200, 1199, 1), trades::add);
+
+		assertEquals(200, trades.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(1000 + i, trades.get(i).getPrice());
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.securecryptoconfig.SCCKey;
+import org.securecryptoconfig.SCCKey.KeyUseCase;
+import org.securecryptoconfig.SecureCryptoConfig;
+
+import main.OrderStore.StoredOrder;
+
+/**
+ * Tests of the recovery of the {@link OrderJournal}
+ */
+public class OrderJournalTest {
+
+	// length, clientId, sequence and checksum in front of every record
+	private static final int HEADER = 20;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void ordersAreRecoveredFromAllSegments() throws Exception {
+		// 34 records per segment, so the orders are spread over several files
+		OrderJournal journal = OrderJournal.open(directory, 4096, 0);
+		for (int sequence = 0; sequence < 300; sequence++) {
+			byte[] order = new byte[100];
+			order[0] = (byte) sequence;
+			journal.append(sequence % 2, sequence / 2, order);
+		}
+		journal.close();
+
+		OrderJournal reopened = OrderJournal.open(directory, 4096, 0);
+		List<StoredOrder> orders = reopened.getOrders(1, 0, 1000);
+		assertEquals(150, orders.size());
+		for (int i = 0; i < orders.size(); i++) {
+			assertEquals(i, orders.get(i).sequence);
+			assertEquals((byte) (2 * i + 1), orders.get(i).encryptedOrder[0]);
+		}
+		assertEquals(10, reopened.getOrders(0, 140, 1000).size());
+		assertEquals(1, reopened.getMaxClientId());
+
+		OrderStore store = new OrderStore();
+		assertEquals(2 * OrderStore.CAPACITY, reopened.recover(store));
+		List<StoredOrder> restored = store.getOrders(0, 0, 1000);
+		assertEquals(OrderStore.CAPACITY, restored.size());
+		assertEquals(150 - OrderStore.CAPACITY, restored.get(0).sequence);
+		reopened.close();
+	}
+
+	@Test
+	public void journalEndsAtRecordWithWrongChecksum() throws Exception {
+		OrderJournal journal = OrderJournal.open(directory, 4096, 0);
+		journal.append(7, 0, new byte[] { 1, 2, 3 });
+		journal.append(7, 1, new byte[] { 4, 5, 6 });
+		journal.append(7, 2, new byte[] { 7, 8, 9 });
+		journal.close();
+
+		// changes the content of the second record
+		try (RandomAccessFile file = new RandomAccessFile(directory.resolve("orders-00000000.journal").toFile(),
+				"rw")) {
+			file.seek(HEADER + 3 + HEADER + 1);
+			file.write(42);
+		}
+
+		OrderJournal reopened = OrderJournal.open(directory, 4096, 0);
+		List<StoredOrder> orders = reopened.getOrders(7, 0, 10);
+		assertEquals(1, orders.size());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, orders.get(0).encryptedOrder);
+		// new records replace the damaged ones
+		assertEquals(HEADER + 3, reopened.getWritePosition());
+		reopened.close();
+	}
+
+	@Test
+	public void partlyWrittenRecordIsIgnored() throws Exception {
+		OrderJournal journal = OrderJournal.open(directory, 4096, 0);
+		journal.append(3, 0, new byte[] { 1, 2, 3 });
+		journal.close();
+
+		// length and client of a record whose content was not written before a crash
+		try (RandomAccessFile file = new RandomAccessFile(directory.resolve("orders-00000000.journal").toFile(),
+				"rw")) {
+			file.seek(HEADER + 3);
+			file.writeInt(100);
+			file.writeInt(3);
+			file.writeLong(1);
+		}
+
+		OrderJournal reopened = OrderJournal.open(directory, 4096, 0);
+		assertEquals(1, reopened.getOrders(3, 0, 10).size());
+		reopened.append(3, 1, new byte[] { 4, 5 });
+		reopened.close();
+
+		OrderJournal again = OrderJournal.open(directory, 4096, 0);
+		List<StoredOrder> orders = again.getOrders(3, 0, 10);
+		assertEquals(2, orders.size());
+		assertArrayEquals(new byte[] { 4, 5 }, orders.get(1).encryptedOrder);
+		again.close();
+	}
+
+	@Test
+	public void recordLongerThanSegmentEndsJournal() throws Exception {
+		OrderJournal journal = OrderJournal.open(directory, 4096, 0);
+		journal.append(3, 0, new byte[] { 1 });
+		journal.close();
+
+		try (RandomAccessFile file = new RandomAccessFile(directory.resolve("orders-00000000.journal").toFile(),
+				"rw")) {
+			file.seek(HEADER + 1);
+			file.writeInt(1 << 20);
+		}
+
+		OrderJournal reopened = OrderJournal.open(directory, 4096, 0);
+		assertEquals(1, reopened.getOrders(3, 0, 10).size());
+		assertEquals(HEADER + 1, reopened.getWritePosition());
+		reopened.close();
+	}
+
+	@Test
+	public void clientsAndDataKeysAreRestored() throws Exception {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get("scc-configs"));
+		Server.masterKey = Server.generateKey();
+		Path journalDirectory = directory.resolve("journal");
+		Path keyFile = directory.resolve("master.key");
+
+		Server server = new Server();
+		server.enableJournal(journalDirectory, keyFile);
+		byte[] publicKey = SCCKey.createKey(KeyUseCase.Signing).getPublicKeyBytes();
+		int clientId = server.registerClient(publicKey);
+		byte[] dataKey = server.keys.getDataKey(clientId).toBytes();
+		server.journal.close();
+
+		// another master key is set, the one of the key file has to be used
+		Server.masterKey = Server.generateKey();
+		Server restarted = new Server();
+		restarted.enableJournal(journalDirectory, keyFile);
+		assertArrayEquals(publicKey, restarted.clients.getPublicKey(clientId));
+		assertArrayEquals(dataKey, restarted.keys.getDataKey(clientId).toBytes());
+		byte[] otherKey = SCCKey.createKey(KeyUseCase.Signing).getPublicKeyBytes();
+		assertTrue(restarted.registerClient(otherKey) > clientId);
+		restarted.journal.close();
+	}
+
+	@Test
+	public void dataKeysAreRestoredAfterMasterKeyRotation() throws Exception {
+		SecureCryptoConfig.setCustomSCCPath(Paths.get("scc-configs"));
+		Server.masterKey = Server.generateKey();
+		Path journalDirectory = directory.resolve("journal");
+		Path keyFile = directory.resolve("master.key");
+
+		Server server = new Server();
+		server.enableJournal(journalDirectory, keyFile);
+		int clientId = server.registerClient(SCCKey.createKey(KeyUseCase.Signing).getPublicKeyBytes());
+		byte[] dataKey = server.keys.getDataKey(clientId).toBytes();
+		assertEquals(1, server.rotateMasterKey(Server.generateKey()));
+		server.journal.close();
+
+		List<KeyManager.MasterKey> stored = KeyManager.readMasterKeys(keyFile);
+		assertEquals(1, stored.size());
+		assertEquals(1, stored.get(0).version);
+
+		Server restarted = new Server();
+		restarted.enableJournal(journalDirectory, keyFile);
+		assertEquals(1, restarted.keys.getMasterVersion());
+		assertArrayEquals(dataKey, restarted.keys.getDataKey(clientId).toBytes());
+		restarted.journal.close();
+	}
+
+}
@@ -0,0 +1,91 @@
+package main;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the sequence window of the {@link ReplayFilter}
+ */
+public class ReplayFilterTest {
+
+	@Test
+	public void sequenceNumberIsOnlyAcceptedOnce() {
+		ReplayFilter filter = new ReplayFilter();
+		long now = System.currentTimeMillis();
+
+		assertTrue(filter.isFresh(1, 5, now));
+		assertTrue(filter.markSeen(1, 5));
+		assertFalse(filter.isFresh(1, 5, now));
+		assertFalse(filter.markSeen(1, 5));
+	}
+
+	@Test
+	public void clientsHaveTheirOwnWindows() {
+		ReplayFilter filter = new ReplayFilter();
+
+		assertTrue(filter.markSeen(1, 5));
+		assertTrue(filter.isFresh(2, 5, System.currentTimeMillis()));
+		assertTrue(filter.markSeen(2, 5));
+	}
+
+	@Test
+	public void sequenceNumbersWithinWindowMayArriveOutOfOrder() {
+		ReplayFilter filter = new ReplayFilter();
+
+		assertTrue(filter.markSeen(1, 2000));
+		assertTrue(filter.markSeen(1, 1998));
+		assertTrue(filter.markSeen(1, 1999));
+		assertTrue(filter.markSeen(1, 2000 - ReplayFilter.WINDOW + 1));
+		assertFalse(filter.markSeen(1, 1998));
+		assertFalse(filter.markSeen(1, 2000 - ReplayFilter.WINDOW + 1));
+	}
+
+	@Test
+	public void sequenceNumbersOlderThanWindowAreRejected() {
+		ReplayFilter filter = new ReplayFilter();
+		long now = System.currentTimeMillis();
+
+		assertTrue(filter.markSeen(1, 2000));
+		assertFalse(filter.isFresh(1, 2000 - ReplayFilter.WINDOW, now));
+		assertFalse(filter.markSeen(1, 2000 - ReplayFilter.WINDOW));
+		assertTrue(filter.isFresh(1, 2000 - ReplayFilter.WINDOW + 1, now));
+	}
+
+	@Test
+	public void bitsOfSkippedSequenceNumbersAreCleared() {
+		ReplayFilter filter = new ReplayFilter();
+
+		assertTrue(filter.markSeen(1, 10));
+		// same bit as 10 in the window, but not seen yet
+		assertTrue(filter.markSeen(1, 10 + ReplayFilter.WINDOW));
+		assertTrue(filter.markSeen(1, 11 + ReplayFilter.WINDOW));
+		// far ahead of the window, nothing of the old window may stay set
+		long highest = 11 + 5L * ReplayFilter.WINDOW;
+		assertTrue(filter.markSeen(1, highest));
+		for (long sequence = highest - ReplayFilter.WINDOW + 1; sequence < highest; sequence++) {
+			assertTrue(filter.isFresh(1, sequence, System.currentTimeMillis()));
+		}
+	}
+
+	@Test
+	public void invalidSequenceNumbersAreRejected() {
+		ReplayFilter filter = new ReplayFilter();
+
+		assertFalse(filter.isFresh(1, 0, System.currentTimeMillis()));
+		assertFalse(filter.markSeen(1, 0));
+		assertFalse(filter.markSeen(1, -3));
+	}
+
+	@Test
+	public void timestampOutsideOfSkewIsRejected() {
+		ReplayFilter filter = new ReplayFilter(1000);
+		long now = System.currentTimeMillis();
+
+		assertTrue(filter.isFresh(1, 1, now - 500));
+		assertFalse(filter.isFresh(1, 1, now - 60000));
+		assertFalse(filter.isFresh(1, 1, now + 60000));
+	}
+
+}